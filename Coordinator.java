@@ -0,0 +1,233 @@
+package pppp.sim;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// plays games in worker JVMs on this machine (one game at a time each)
+// a player that crashes, exits or hangs its JVM only loses the worker: the
+// game is given to a new worker and fails if it also crashes that one
+// (workers stay up between runs until the coordinator is closed)
+public class Coordinator implements Closeable {
+
+	// tries of a game before it is reported as failed
+	private static final int ATTEMPTS = 2;
+
+	// time for a new worker to connect
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	// time a game may take before its worker is deemed hung (ms): a fixed
+	// allowance plus a budget per turn, or a cap if there is no turn limit
+	public long setup_millis = 60000;
+	public long turn_millis = 50;
+	public long unlimited_millis = 3600000;
+
+	private final int workers;
+
+	// workers waiting for the next run (closed once the coordinator is)
+	private final Deque <Remote> idle = new ArrayDeque <Remote> ();
+	private boolean closed = false;
+
+	public Coordinator(int workers)
+	{
+		if (workers < 1)
+			throw new IllegalArgumentException("Invalid number of workers (need at least 1)");
+		this.workers = workers;
+	}
+
+	// play all games, results are returned in game order
+	public List <Result> run(List <Game> games) throws InterruptedException
+	{
+		return run(games, null);
+	}
+
+	// play all games and pass each result to the sink as it completes
+	public List <Result> run(List <Game> games, Consumer <Result> sink)
+	                        throws InterruptedException
+	{
+		BlockingQueue <Integer> queue = new LinkedBlockingQueue <Integer> ();
+		for (int i = 0 ; i != games.size() ; ++i)
+			queue.add(i);
+		BlockingQueue <Object[]> done = new LinkedBlockingQueue <Object[]> ();
+		int[] attempts = new int [games.size()];
+		// one thread drives each worker
+		Thread[] slots = new Thread [Math.min(workers, games.size())];
+		for (int s = 0 ; s != slots.length ; ++s) {
+			slots[s] = new Thread(() -> drive(games, queue, attempts, done), "worker");
+			slots[s].start();
+		}
+		try {
+			Result[] results = new Result [games.size()];
+			for (int n = 0 ; n != games.size() ; ++n) {
+				Object[] entry = done.take();
+				Result result = (Result) entry[1];
+				results[(Integer) entry[0]] = result;
+				if (sink != null) sink.accept(result);
+			}
+			// the workers are idle again once their threads end
+			for (Thread slot : slots)
+				slot.join();
+			return Arrays.asList(results);
+		} finally {
+			// workers finish their current game and exit
+			queue.clear();
+		}
+	}
+
+	// play games from the queue on a worker, replacing it if it crashes
+	private void drive(List <Game> games, BlockingQueue <Integer> queue,
+	                   int[] attempts, BlockingQueue <Object[]> done)
+	{
+		Remote worker = take();
+		try {
+			Integer i;
+			while ((i = queue.poll()) != null) {
+				Game game = games.get(i);
+				long start = System.nanoTime();
+				try {
+					if (worker == null) worker = new Remote();
+					done.add(new Object [] {i, worker.play(i, game, timeout(game))});
+				} catch (IOException | RuntimeException e) {
+					if (worker != null) worker.kill();
+					worker = null;
+					// the game crashed its worker (or no worker could start)
+					if (++attempts[i] < ATTEMPTS)
+						queue.add(i);
+					else
+						done.add(new Object [] {i, new Result(game, null, 0,
+						         System.nanoTime() - start,
+						         "Worker failed: " + e.getMessage())});
+				}
+			}
+		} finally {
+			if (worker != null) give(worker);
+		}
+	}
+
+	// a live idle worker (null if there is none)
+	private Remote take()
+	{
+		synchronized (idle) {
+			while (!idle.isEmpty()) {
+				Remote worker = idle.pop();
+				if (worker.alive()) return worker;
+				worker.kill();
+			}
+			return null;
+		}
+	}
+
+	// keep a worker for the next run (closed if the coordinator is)
+	private void give(Remote worker)
+	{
+		synchronized (idle) {
+			if (!closed) {
+				idle.push(worker);
+				return;
+			}
+		}
+		worker.close();
+	}
+
+	// time a game may take in a worker (ms)
+	private int timeout(Game game)
+	{
+		long millis = game.turns < 0 ? unlimited_millis
+		                             : setup_millis + 10 * game.turns * turn_millis;
+		return (int) Math.min(millis, Integer.MAX_VALUE);
+	}
+
+	// stop the idle workers (workers still playing stop after their game)
+	public void close()
+	{
+		List <Remote> workers;
+		synchronized (idle) {
+			closed = true;
+			workers = new ArrayList <Remote> (idle);
+			idle.clear();
+		}
+		for (Remote worker : workers)
+			worker.close();
+	}
+
+	// worker JVM & its connection
+	private static class Remote {
+
+		private final Process process;
+		private final Socket socket;
+		private final BufferedReader in;
+		private final Writer out;
+
+		Remote() throws IOException
+		{
+			try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+				String java = System.getProperty("java.home") + File.separator
+				              + "bin" + File.separator + "java";
+				process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				                             Worker.class.getName(),
+				                             Integer.toString(server.getLocalPort()))
+				          .inheritIO().start();
+				server.setSoTimeout(CONNECT_TIMEOUT);
+				try {
+					socket = server.accept();
+				} catch (IOException e) {
+					process.destroyForcibly();
+					throw new IOException("Worker did not connect (" + e.getMessage() + ")");
+				}
+			}
+			in = new BufferedReader(new InputStreamReader(
+			     socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new BufferedWriter(new OutputStreamWriter(
+			      socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		// a worker that takes longer than the timeout (ms) is treated as crashed
+		Result play(int id, Game game, int timeout) throws IOException
+		{
+			socket.setSoTimeout(timeout);
+			out.write(Worker.game(id, game) + "\n");
+			out.flush();
+			String line;
+			try {
+				line = in.readLine();
+			} catch (SocketTimeoutException e) {
+				throw new IOException("Worker timed out after " + timeout
+				                      + " ms playing " + game);
+			}
+			if (line == null)
+				throw new IOException("Worker exited playing " + game);
+			String[] field = line.split(" ");
+			if (field.length < 4 || Integer.parseInt(field[1]) != id)
+				throw new IOException("Unexpected reply: " + line);
+			return Worker.result(game, field);
+		}
+
+		// ask the worker to exit once its game is done
+		void close()
+		{
+			try {
+				socket.close();
+				if (!process.waitFor(10, TimeUnit.SECONDS))
+					process.destroyForcibly();
+			} catch (IOException | InterruptedException e) {
+				process.destroyForcibly();
+			}
+		}
+
+		boolean alive()
+		{
+			return process.isAlive();
+		}
+
+		void kill()
+		{
+			process.destroyForcibly();
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package pppp.g7;
+
+import pppp.sim.Point;
+
+import java.util.Arrays;
+
+/**
+ * Center of a disk of a given radius covering the most points.
+ * <p>
+ * The board is split into cells an eighth of the radius wide (wider on
+ * boards too large for 200 cells a side). A disk centered in a cell
+ * covers no more than the points of the cells within one radius of it,
+ * which bounds every cell. Cells are visited from the highest bound
+ * down until no cell can beat the best disk so far, which starts as the
+ * hint (the center found on an earlier tick). Some best disk centered in
+ * a cell has a point of its neighbourhood on its boundary, so each such
+ * point is used once as a pivot. An angular sweep over the centers on the
+ * circle around the pivot, using the points within two radii, finds the
+ * best of them. With a slack the search stops once no cell can beat the
+ * best disk by more than that fraction.
+ */
+public class DiskCover {
+    // pivots sweep slightly inside the radius so that covered points stay covered after rounding
+    private static final double EPSILON = 1e-6;
+    // cells per radius & most cells along a side of the board
+    private static final int CELLS_PER_RADIUS = 8;
+    private static final int MAX_COLS = 200;
+
+    private final double radius;
+    private final double sweep;
+    private final double slack;
+
+    private double cell;
+    private double minX, minY;
+    private int cols;
+    private int n;
+    // widest column offset of the cells within one & two radii of a cell, by row offset
+    private int[] near = new int[0], far = new int[0];
+    // offsets of the cells that the circle of centers around a point of a cell can cross
+    private int[] ringRow = new int[0], ringCol = new int[0];
+    private double[] x = new double[0], y = new double[0];
+    private int[] cellOf = new int[0];
+    // points grouped by cell, cell c holds the points start[c] to start[c + 1] - 1
+    private int[] start = new int[1];
+    private double[] cellX = new double[0], cellY = new double[0];
+    private boolean[] swept = new boolean[0];
+    // points within one radius of each cell (most any disk centered in it can cover)
+    private int[] bound = new int[0];
+    // cells that may beat the best disk, keyed by bound (high bits) & cell (low bits)
+    private long[] order = new long[0];
+    // angles at which sweep intervals begin & end
+    private double[] enter = new double[0], exit = new double[0];
+
+    private double bestX, bestY;
+
+    /**
+     * @param radius radius of the disk (points closer than this are covered)
+     * @param slack  fraction by which the result may fall short of the best (0 for exact)
+     */
+    public DiskCover(double radius, double slack) {
+        this.radius = radius;
+        this.sweep = radius - EPSILON;
+        this.slack = slack;
+    }
+
+    /**
+     * Starts a new set of at most n points on a board of the given side.
+     */
+    public void clear(int side, int n) {
+        double size = Math.max(radius / CELLS_PER_RADIUS, side / (double) MAX_COLS);
+        if (size != cell) {
+            cell = size;
+            near = reach(radius);
+            far = reach(2 * radius);
+            ring();
+        }
+        this.minX = this.minY = -side / 2.0;
+        this.cols = (int) (side / cell) + 1;
+        this.n = 0;
+        if (start.length < cols * cols + 1) {
+            start = new int[cols * cols + 1];
+            bound = new int[cols * cols];
+            order = new long[cols * cols];
+        } else {
+            Arrays.fill(start, 0, cols * cols + 1, 0);
+        }
+        if (x.length < n) {
+            x = new double[n];
+            y = new double[n];
+            cellOf = new int[n];
+            cellX = new double[n];
+            cellY = new double[n];
+            swept = new boolean[n];
+            enter = new double[n];
+            exit = new double[n];
+        }
+    }
+
+    // widest column offset of the cells with points within distance of a cell, by row offset
+    private int[] reach(double distance) {
+        int rows = (int) (distance / cell) + 1;
+        int[] width = new int[rows + 1];
+        for (int dr = 0; dr <= rows; ++dr) {
+            double gap = Math.max(0, dr - 1) * cell;
+            width[dr] = (int) (Math.sqrt(Math.max(0, distance * distance - gap * gap)) / cell) + 1;
+        }
+        return width;
+    }
+
+    private void ring() {
+        int w = (int) (radius / cell) + 2;
+        int k = 0;
+        ringRow = new int[(2 * w + 1) * (2 * w + 1)];
+        ringCol = new int[ringRow.length];
+        for (int dr = -w; dr <= w; ++dr) {
+            for (int dc = -w; dc <= w; ++dc) {
+                double gr = Math.max(0, Math.abs(dr) - 1) * cell, gc = Math.max(0, Math.abs(dc) - 1) * cell;
+                double fr = (Math.abs(dr) + 1) * cell, fc = (Math.abs(dc) + 1) * cell;
+                if (gr * gr + gc * gc <= radius * radius && fr * fr + fc * fc >= radius * radius) {
+                    ringRow[k] = dr;
+                    ringCol[k] = dc;
+                    ++k;
+                }
+            }
+        }
+        ringRow = Arrays.copyOf(ringRow, k);
+        ringCol = Arrays.copyOf(ringCol, k);
+    }
+
+    // most points covered by a disk with the point on its boundary
+    private int ringBound(double px, double py) {
+        int r = row(py), q = column(px);
+        int most = 0;
+        for (int k = 0; k < ringRow.length; ++k) {
+            int rr = r + ringRow[k], cc = q + ringCol[k];
+            if (rr >= 0 && rr < cols && cc >= 0 && cc < cols) {
+                most = Math.max(most, bound[rr * cols + cc]);
+            }
+        }
+        return most;
+    }
+
+    public void add(double px, double py) {
+        x[n] = px;
+        y[n] = py;
+        cellOf[n] = row(py) * cols + column(px);
+        ++start[cellOf[n] + 1];
+        ++n;
+    }
+
+    /**
+     * Groups the points added since {@link #clear} by cell.
+     */
+    public void build() {
+        for (int c = 0; c < cols * cols; ++c) {
+            start[c + 1] += start[c];
+        }
+        for (int i = 0; i < n; ++i) {
+            int j = start[cellOf[i]]++;
+            cellX[j] = x[i];
+            cellY[j] = y[i];
+        }
+        for (int c = cols * cols; c > 0; --c) {
+            start[c] = start[c - 1];
+        }
+        start[0] = 0;
+    }
+
+    private int column(double px) {
+        return Math.min(cols - 1, Math.max(0, (int) ((px - minX) / cell)));
+    }
+
+    private int row(double py) {
+        return Math.min(cols - 1, Math.max(0, (int) ((py - minY) / cell)));
+    }
+
+    // points of the cells within the reach of cell c (each row of them is contiguous)
+    private int count(int c, int[] width) {
+        int r = c / cols, q = c % cols;
+        int k = 0;
+        for (int dr = -(width.length - 1); dr < width.length; ++dr) {
+            if (r + dr < 0 || r + dr >= cols) {
+                continue;
+            }
+            int w = width[Math.abs(dr)];
+            k += start[(r + dr) * cols + Math.min(q + w, cols - 1) + 1] - start[(r + dr) * cols + Math.max(q - w, 0)];
+        }
+        return k;
+    }
+
+    /**
+     * Finds the disk covering the most points.
+     *
+     * @param hint center to start from (the best center found before)
+     * @return number of points covered by the disk at {@link #center()}
+     */
+    public int solve(Point hint) {
+        bestX = hint.x;
+        bestY = hint.y;
+        int best = cover(bestX, bestY);
+
+        int cells = 0;
+        for (int c = 0; c < cols * cols; ++c) {
+            bound[c] = count(c, near);
+            if (bound[c] * (1 - slack) > best) {
+                order[cells++] = ((long) bound[c] << 32) | c;
+            }
+        }
+        Arrays.sort(order, 0, cells);
+        Arrays.fill(swept, 0, n, false);
+
+        for (int k = cells - 1; k >= 0; --k) {
+            if ((order[k] >>> 32) * (1 - slack) <= best) {
+                break;
+            }
+            // pivots of the cells within one radius
+            int c = (int) order[k];
+            int r = c / cols, q = c % cols;
+            for (int dr = -(near.length - 1); dr < near.length; ++dr) {
+                if (r + dr < 0 || r + dr >= cols) {
+                    continue;
+                }
+                int w = near[Math.abs(dr)];
+                int from = start[(r + dr) * cols + Math.max(q - w, 0)];
+                int to = start[(r + dr) * cols + Math.min(q + w, cols - 1) + 1];
+                for (int j = from; j < to; ++j) {
+                    if (!swept[j]) {
+                        swept[j] = true;
+                        if (ringBound(cellX[j], cellY[j]) * (1 - slack) > best) {
+                            best = Math.max(best, sweep(cellX[j], cellY[j], best));
+                        }
+                    }
+                }
+            }
+        }
+        return cover(bestX, bestY);
+    }
+    /**
+     * @return center of the disk found by the last {@link #solve}
+     */
+    public Point center() {
+        return new Point(bestX, bestY);
+    }
+
+    // points strictly within the radius of a center
+    private int cover(double cx, double cy) {
+        int c0 = column(cx - radius), c1 = column(cx + radius);
+        int r0 = row(cy - radius), r1 = row(cy + radius);
+        int k = 0;
+        for (int r = r0; r <= r1; ++r) {
+            for (int j = start[r * cols + c0]; j < start[r * cols + c1 + 1]; ++j) {
+                double dx = cellX[j] - cx;
+                double dy = cellY[j] - cy;
+                if (Math.sqrt(dx * dx + dy * dy) < radius) {
+                    ++k;
+                }
+            }
+        }
+        return k;
+    }
+
+    // best disk with the pivot on its boundary, kept if it beats the bar
+    // (directions are compared by pseudo angle, which is monotone in the angle)
+    private int sweep(double px, double py, int bar) {
+        int r = row(py), q = column(px);
+        int base = 0, wraps = 0, m = 0;
+        for (int dr = -(far.length - 1); dr < far.length; ++dr) {
+            if (r + dr < 0 || r + dr >= cols) {
+                continue;
+            }
+            int w = far[Math.abs(dr)];
+            int from = start[(r + dr) * cols + Math.max(q - w, 0)];
+            int to = start[(r + dr) * cols + Math.min(q + w, cols - 1) + 1];
+            for (int j = from; j < to; ++j) {
+                double dx = cellX[j] - px;
+                double dy = cellY[j] - py;
+                double d = Math.sqrt(dx * dx + dy * dy);
+                if (d == 0) {
+                    // the pivot (and points on it)
+                    ++base;
+                } else if (d <= 2 * sweep) {
+                    // centers on the circle around the pivot covering the point are
+                    // within the half angle b of its direction (cos b = d / 2r)
+                    double cos = Math.min(1.0, d / (2 * sweep));
+                    double sin = Math.sqrt(1 - cos * cos);
+                    double ux = dx / d, uy = dy / d;
+                    double s = pseudoAngle(ux * cos + uy * sin, uy * cos - ux * sin);
+                    double e = pseudoAngle(ux * cos - uy * sin, uy * cos + ux * sin);
+                    if (e < s) {
+                        ++wraps;
+                    }
+                    enter[m] = s;
+                    exit[m] = e;
+                    ++m;
+                }
+            }
+        }
+        if (base + m <= bar) {
+            return base + m;
+        }
+        Arrays.sort(enter, 0, m);
+        Arrays.sort(exit, 0, m);
+
+        // intervals are closed, so an interval entering at the angle another exits overlaps it
+        int count = base + wraps, most = count;
+        double angle = 0;
+        for (int i = 0, j = 0; i < m; ) {
+            if (j == m || enter[i] <= exit[j]) {
+                if (++count > most) {
+                    most = count;
+                    angle = enter[i];
+                }
+                ++i;
+            } else {
+                --count;
+                ++j;
+            }
+        }
+        if (most > bar) {
+            if (m == 0) {
+                bestX = px;
+                bestY = py;
+            } else {
+                // direction of the pseudo angle, scaled to the radius
+                double t = angle - Math.floor(angle);
+                double vx, vy;
+                if (angle < 1) {
+                    vx = 1 - t;
+                    vy = t;
+                } else if (angle < 2) {
+                    vx = -t;
+                    vy = 1 - t;
+                } else if (angle < 3) {
+                    vx = t - 1;
+                    vy = -t;
+                } else {
+                    vx = t;
+                    vy = t - 1;
+                }
+                double v = Math.sqrt(vx * vx + vy * vy);
+                bestX = px + sweep * vx / v;
+                bestY = py + sweep * vy / v;
+            }
+        }
+        return most;
+    }
+
+    // angle of a direction in quarter turns, measured along the unit diamond ([0, 4))
+    private static double pseudoAngle(double dx, double dy) {
+        if (dy >= 0) {
+            return dx >= 0 ? dy / (dx + dy) : 1 - dx / (-dx + dy);
+        } else {
+            return dx < 0 ? 2 - dy / (-dx - dy) : 3 + dx / (dx - dy);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package pppp.sim;
+
+// preallocated copy of the game state after a turn (as drawn by the viewer)
+class Frame {
+
+	// turn of the frame & whether the game ended with it
+	long turn = 0;
+	boolean last = false;
+
+	// scores & pipers
+	final int[] score = new int [4];
+	final double[][] piper_x;
+	final double[][] piper_y;
+	final boolean[][] piper_play;
+
+	// rats still free (first rat_count entries, in order of id)
+	int rat_count = 0;
+	final int[] rat_id;
+	final double[] rat_x;
+	final double[] rat_y;
+	final double[] rat_angle;
+	final int[] rat_tune;
+
+	Frame(int n_pipers, int n_rats)
+	{
+		piper_x = new double [4][n_pipers];
+		piper_y = new double [4][n_pipers];
+		piper_play = new boolean [4][n_pipers];
+		rat_id = new int [n_rats];
+		rat_x = new double [n_rats];
+		rat_y = new double [n_rats];
+		rat_angle = new double [n_rats];
+		rat_tune = new int [n_rats];
+	}
+
+	// text served to the web viewer (positions normalized by radius)
+	String text(String[] groups, double side_ratio, double radius, int refresh)
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append(side_ratio).append("\n");
+		for (int g = 0 ; g != 4 ; ++g) {
+			buf.append(groups[g] + ", " + score[g]);
+			for (int p = 0 ; p != piper_x[g].length ; ++p) {
+				double x = piper_x[g][p] / radius;
+				double y = piper_y[g][p] / radius;
+				int m = piper_play[g][p] ? 1 : 0;
+				buf.append(", " + x + ", " + y + ", " + m);
+			}
+			buf.append("\n");
+		}
+		for (int r = 0 ; r != rat_count ; ++r) {
+			double x = rat_x[r] / radius;
+			double y = rat_y[r] / radius;
+			buf.append(x + ", " + y + ", " + rat_angle[r] + ", " + rat_tune[r]);
+			if (r + 1 != rat_count)
+				buf.append(", ");
+		}
+		buf.append("\n").append(refresh);
+		return buf.toString();
+	}
+}
@@ -0,0 +1,184 @@
+package pppp.sim;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+// binary frames for the web viewer (one encoder per viewer)
+//
+// frame layout (big endian):
+//   magic 'P' 'F', flags (1 delta, 2 last), turn, base turn (int, delta only),
+//   refresh (int), side ratio (float), group name & score (4 times: short
+//   length, UTF-8, int), pipers per group (short), rat count (int)
+//   pipers: x, y (short, normalized by the arena radius) then play bits
+//           (8 pipers per byte)
+//   keyframe rats: x, y, angle << 3 | tune + 1 (short each)
+//   delta rats: one bit per rat of the base frame (set if removed),
+//               then zig-zag varint differences of the three fields
+//               of every remaining rat (rats keep their order)
+class FrameEncoder {
+
+	private static final int FLAG_DELTA = 1;
+	private static final int FLAG_LAST  = 2;
+
+	// arena radius (positions are in [-radius, +radius])
+	private final double radius;
+	private final float side_ratio;
+	private final byte[][] names = new byte [4][];
+
+	// quantized rats of the last encoded frame (base of the next delta)
+	private boolean has_base = false;
+	private long base_turn = 0;
+	private int base_count = 0;
+	private int[] base_id = new int [0];
+	private short[] base_rat = new short [0];
+
+	// quantized rats of the frame being encoded
+	private int[] rat_id = new int [0];
+	private short[] rat = new short [0];
+
+	private byte[] out = new byte [0];
+
+	FrameEncoder(String[] groups, double side_ratio, double radius)
+	{
+		this.radius = radius;
+		this.side_ratio = (float) side_ratio;
+		for (int g = 0 ; g != 4 ; ++g)
+			names[g] = groups[g].getBytes(StandardCharsets.UTF_8);
+	}
+
+	// position normalized by the arena radius as a 16-bit value
+	private short quantize(double v)
+	{
+		double q = Math.rint(v / radius * Short.MAX_VALUE);
+		if (q > Short.MAX_VALUE) q = Short.MAX_VALUE;
+		if (q < -Short.MAX_VALUE) q = -Short.MAX_VALUE;
+		return (short) q;
+	}
+
+	// angle in 13 bits & tune (-1 to 3) in 3 bits
+	private static short pack(double angle, int tune)
+	{
+		double a = angle / (Math.PI * 2.0);
+		int q = (int) Math.floor((a - Math.floor(a)) * 8192.0) & 8191;
+		return (short) ((q << 3) | (tune + 1));
+	}
+
+	// base64 text of the binary frame (to be sent through a text reply)
+	String encode_text(Frame f, int refresh, boolean delta)
+	{
+		ByteBuffer buf = encode(f, refresh, delta);
+		return Base64.getEncoder().encodeToString(
+		       Arrays.copyOf(buf.array(), buf.position()));
+	}
+
+	// encode a frame (delta against the last encoded frame if asked & possible)
+	// the frame becomes the base of the next delta
+	ByteBuffer encode(Frame f, int refresh, boolean delta)
+	{
+		delta = delta && has_base;
+		int n_pipers = f.piper_x[0].length;
+		int n = f.rat_count;
+		// quantize rats
+		if (rat.length < n * 3) {
+			rat = new short [n * 3];
+			rat_id = new int [n];
+		}
+		for (int r = 0 ; r != n ; ++r) {
+			rat_id[r] = f.rat_id[r];
+			rat[r * 3]     = quantize(f.rat_x[r]);
+			rat[r * 3 + 1] = quantize(f.rat_y[r]);
+			rat[r * 3 + 2] = pack(f.rat_angle[r], f.rat_tune[r]);
+		}
+		// delta only if the rats are a subset of the base rats
+		if (delta) {
+			int r = 0;
+			for (int b = 0 ; b != base_count && r != n ; ++b)
+				if (rat_id[r] == base_id[b]) r++;
+			delta = r == n;
+		}
+		// upper bound of the frame size
+		int size = 64 + 4 * (n_pipers * 4 + n_pipers / 8 + 1)
+		         + (delta ? base_count / 8 + 1 + n * 9 : n * 6);
+		for (int g = 0 ; g != 4 ; ++g)
+			size += 6 + names[g].length;
+		if (out.length < size)
+			out = new byte [size];
+		ByteBuffer buf = ByteBuffer.wrap(out);
+		// header
+		buf.put((byte) 'P').put((byte) 'F');
+		buf.put((byte) ((delta ? FLAG_DELTA : 0) | (f.last ? FLAG_LAST : 0)));
+		buf.putInt((int) f.turn);
+		if (delta)
+			buf.putInt((int) base_turn);
+		buf.putInt(refresh);
+		buf.putFloat(side_ratio);
+		for (int g = 0 ; g != 4 ; ++g) {
+			buf.putShort((short) names[g].length).put(names[g]);
+			buf.putInt(f.score[g]);
+		}
+		buf.putShort((short) n_pipers);
+		buf.putInt(n);
+		// pipers
+		for (int g = 0 ; g != 4 ; ++g) {
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				buf.putShort(quantize(f.piper_x[g][p]));
+				buf.putShort(quantize(f.piper_y[g][p]));
+			}
+			int bits = 0;
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				if (f.piper_play[g][p]) bits |= 1 << (p & 7);
+				if ((p & 7) == 7 || p + 1 == n_pipers) {
+					buf.put((byte) bits);
+					bits = 0;
+				}
+			}
+		}
+		// rats
+		if (!delta)
+			for (int i = 0 ; i != n * 3 ; ++i)
+				buf.putShort(rat[i]);
+		else {
+			// removed rats of the base frame (ids are in the same order)
+			int bits = 0;
+			for (int b = 0, r = 0 ; b != base_count ; ++b) {
+				if (r != n && rat_id[r] == base_id[b]) r++;
+				else bits |= 1 << (b & 7);
+				if ((b & 7) == 7 || b + 1 == base_count) {
+					buf.put((byte) bits);
+					bits = 0;
+				}
+			}
+			for (int b = 0, r = 0 ; r != n ; ++b) {
+				if (rat_id[r] != base_id[b]) continue;
+				for (int k = 0 ; k != 3 ; ++k)
+					varint(buf, rat[r * 3 + k] - base_rat[b * 3 + k]);
+				r++;
+			}
+		}
+		// keep as base of the next delta
+		int[] id = base_id;
+		short[] q = base_rat;
+		base_id = rat_id;
+		base_rat = rat;
+		rat_id = id;
+		rat = q;
+		base_count = n;
+		base_turn = f.turn;
+		has_base = true;
+		return buf;
+	}
+
+	// zig-zag varint of a 16-bit difference
+	private static void varint(ByteBuffer buf, int v)
+	{
+		int z = ((short) v << 1) ^ ((short) v >> 31);
+		z &= 0xffff;
+		while (z >= 0x80) {
+			buf.put((byte) (z | 0x80));
+			z >>>= 7;
+		}
+		buf.put((byte) z);
+	}
+}
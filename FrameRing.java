@@ -0,0 +1,80 @@
+package pppp.sim;
+
+// bounded ring of frames from the game to the viewer
+// (the game never waits for the viewer, frames not fetched in time are dropped)
+class FrameRing {
+
+	private final Frame[] frames;
+
+	// last published frame, frame read by the viewer & frame being written
+	private int latest = -1;
+	private int pinned = -1;
+	private int writing = -1;
+
+	// viewer asked for a frame or stopped
+	private boolean watched = false;
+	private boolean closed = false;
+
+	FrameRing(int size, int n_pipers, int n_rats)
+	{
+		// one frame to publish, one pinned by the viewer & one to write
+		if (size < 3)
+			throw new IllegalArgumentException("Frame ring needs at least 3 frames");
+		frames = new Frame [size];
+		for (int i = 0 ; i != size ; ++i)
+			frames[i] = new Frame(n_pipers, n_rats);
+	}
+
+	// frame to fill next (neither the latest nor read by the viewer)
+	synchronized Frame acquire()
+	{
+		for (int i = 1 ; i <= frames.length ; ++i) {
+			int f = (latest + i + frames.length) % frames.length;
+			if (f != latest && f != pinned) {
+				writing = f;
+				return frames[f];
+			}
+		}
+		throw new IllegalStateException("No free frame");
+	}
+
+	// make the acquired frame the latest one
+	synchronized void publish()
+	{
+		latest = writing;
+		writing = -1;
+	}
+
+	// latest frame, kept intact until unpin()
+	synchronized Frame pin()
+	{
+		watched = true;
+		notifyAll();
+		pinned = latest;
+		return frames[latest];
+	}
+
+	synchronized void unpin()
+	{
+		pinned = -1;
+	}
+
+	// wait until the viewer fetched its first frame
+	synchronized void await_viewer()
+	{
+		while (!watched && !closed)
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+	}
+
+	// viewer stopped
+	synchronized void close()
+	{
+		closed = true;
+		notifyAll();
+	}
+}
@@ -0,0 +1,46 @@
+package pppp.sim;
+
+import java.util.Arrays;
+
+// configuration of a single game
+public class Game {
+
+	// groups in north, east, south, west order
+	public final String[] groups;
+
+	// square side, number of rats and pipers per team
+	public final int side;
+	public final int rats;
+	public final int pipers;
+
+	// turn limit as on the command line (infinite if negative)
+	public final long turns;
+
+	// seed of the random generator
+	public final long seed;
+
+	public Game(String[] groups, int side, int rats, int pipers,
+	            long turns, long seed)
+	{
+		if (groups.length != 4)
+			throw new IllegalArgumentException("Need 4 groups");
+		if (side < 10)
+			throw new IllegalArgumentException("Invalid square side (must exceed outer side)");
+		if (rats < 1)
+			throw new IllegalArgumentException("Invalid number of rats (need at least 1)");
+		if (pipers < 1)
+			throw new IllegalArgumentException("Invalid number of pipers (need at least 1)");
+		this.groups = groups.clone();
+		this.side = side;
+		this.rats = rats;
+		this.pipers = pipers;
+		this.turns = turns;
+		this.seed = seed;
+	}
+
+	public String toString()
+	{
+		return Arrays.toString(groups) + " side " + side + " rats " + rats
+		       + " pipers " + pipers + " seed " + seed;
+	}
+}
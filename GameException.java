@@ -0,0 +1,12 @@
+package pppp.sim;
+
+// failure of a single game (reported in its result instead of exiting)
+class GameException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	GameException(String msg, Throwable cause)
+	{
+		super(msg, cause);
+	}
+}
@@ -0,0 +1,11 @@
+package pppp.sim;
+
+// player that is also given the permanent id of every rat
+// (rat_ids[r] is the id of rats[r], ids never change during a game
+//  and the ids of caught rats are not reused)
+public interface IdentifiedPlayer extends Player {
+
+	// same as Player.play() with the ids of the rats (in increasing order)
+	public void play(Point[][] pipers, boolean[][] pipers_played,
+	                 Point[] rats, int[] rat_ids, Move[] moves);
+}
@@ -0,0 +1,109 @@
+package pppp.sim;
+
+import java.util.*;
+
+// declarative set of games: every lineup (fixed groups plus a combination
+// of the pool) on every side, rats and pipers configuration, trials times
+public class Matrix {
+
+	public String[] fixed = {"g7"};
+	public String[] pool = {"g3", "g4", "g6", "g8", "g9"};
+	public int[] sides = {100};
+	public int[] rats = {20};
+	public int[] pipers = {2};
+	public int trials = 5;
+	public long turns = -1;
+	public long seed = 0;
+
+	// fixed groups followed by each combination of the pool
+	public List <String[]> lineups()
+	{
+		List <String[]> lineups = new ArrayList <String[]> ();
+		if (fixed.length > 4)
+			throw new IllegalArgumentException("More than 4 fixed groups");
+		combine(new String [4], fixed.length, 0, lineups);
+		return lineups;
+	}
+
+	private void combine(String[] lineup, int seat, int from,
+	                     List <String[]> lineups)
+	{
+		if (seat == 4) {
+			System.arraycopy(fixed, 0, lineup, 0, fixed.length);
+			lineups.add(lineup.clone());
+			return;
+		}
+		for (int i = from ; i < pool.length ; ++i) {
+			lineup[seat] = pool[i];
+			combine(lineup, seat + 1, i + 1, lineups);
+		}
+	}
+
+	// all games, trials of a configuration are consecutive
+	public List <Game> games()
+	{
+		SplittableRandom seeds = new SplittableRandom(seed);
+		List <Game> games = new ArrayList <Game> ();
+		for (String[] lineup : lineups())
+			for (int side : sides)
+				for (int n_rats : rats)
+					for (int n_pipers : pipers)
+						for (int t = 0 ; t != trials ; ++t)
+							games.add(new Game(lineup, side, n_rats, n_pipers,
+							                   turns, seeds.nextLong()));
+		return games;
+	}
+
+	// parse options (unspecified ones keep their defaults)
+	public static Matrix parse(String[] args) throws Exception
+	{
+		Matrix m = new Matrix();
+		for (int a = 0 ; a != args.length ; ++a)
+			if (args[a].equals("--fixed")) {
+				if (++a == args.length)
+					throw new Exception("Missing fixed groups");
+				m.fixed = args[a].isEmpty() ? new String [0] : args[a].split(",");
+			} else if (args[a].equals("--pool")) {
+				if (++a == args.length)
+					throw new Exception("Missing group pool");
+				m.pool = args[a].split(",");
+			} else if (args[a].equals("-s") || args[a].equals("--sides")) {
+				if (++a == args.length)
+					throw new Exception("Missing square sides");
+				m.sides = ints(args[a]);
+			} else if (args[a].equals("-r") || args[a].equals("--rats")) {
+				if (++a == args.length)
+					throw new Exception("Missing numbers of rats");
+				m.rats = ints(args[a]);
+			} else if (args[a].equals("-p") || args[a].equals("--pipers")) {
+				if (++a == args.length)
+					throw new Exception("Missing numbers of pipers");
+				m.pipers = ints(args[a]);
+			} else if (args[a].equals("--trials")) {
+				if (++a == args.length)
+					throw new Exception("Missing number of trials");
+				m.trials = Integer.parseInt(args[a]);
+				if (m.trials < 1)
+					throw new Exception("Invalid number of trials (need at least 1)");
+			} else if (args[a].equals("-t") || args[a].equals("--turns")) {
+				if (++a == args.length)
+					throw new Exception("Missing turn limit");
+				m.turns = Long.parseLong(args[a]);
+			} else if (args[a].equals("--seed")) {
+				if (++a == args.length)
+					throw new Exception("Missing seed");
+				m.seed = Long.parseLong(args[a]);
+			} else throw new Exception("Unknown argument: " + args[a]);
+		return m;
+	}
+
+	// comma separated list of integers
+	private static int[] ints(String list)
+	{
+		String[] parts = list.split(",");
+		int[] values = new int [parts.length];
+		for (int i = 0 ; i != parts.length ; ++i)
+			values[i] = Integer.parseInt(parts[i]);
+		return values;
+	}
+}
@@ -0,0 +1,182 @@
+package pppp.sim;
+
+import java.util.*;
+
+// latency histograms of the phases of a turn and of the play() of every
+// seat, plus turn & capture counters (each histogram has one writer,
+// readers such as the viewer may see a turn that is still in progress)
+class Metrics {
+
+	// phases of a turn (view & replay time the game thread, serve the viewer)
+	static final int TURN   = 0;
+	static final int COPY   = 1;
+	static final int MOVES  = 2;
+	static final int RATS   = 3;
+	static final int PIPERS = 4;
+	static final int VIEW   = 5;
+	static final int SERVE  = 6;
+	static final int REPLAY = 7;
+
+	private static final String[] phases = {"turn", "copy", "moves", "rats",
+	                                        "pipers", "view", "serve", "replay"};
+
+	private final Histogram[] phase = new Histogram [phases.length];
+
+	// play() time & captures of every seat (merged by group when printed)
+	private String[] groups;
+	private Histogram[] play;
+	private long[] captures;
+
+	// games & turns measured, rats still free in the last turn
+	private long games = 1;
+	private long turns = 0;
+	private int rats = 0;
+
+	Metrics(String[] groups)
+	{
+		this.groups = groups.clone();
+		play = new Histogram [groups.length];
+		captures = new long [groups.length];
+		for (int i = 0 ; i != phase.length ; ++i)
+			phase[i] = new Histogram();
+		for (int g = 0 ; g != play.length ; ++g)
+			play[g] = new Histogram();
+		if (groups.length == 0) games = 0;
+	}
+
+	void time(int p, long nanos)
+	{
+		phase[p].add(nanos);
+	}
+
+	void play(int g, long nanos)
+	{
+		play[g].add(nanos);
+	}
+
+	// end of a turn with the captures of every seat so far
+	void turn(long nanos, int[] score, int rat_count)
+	{
+		phase[TURN].add(nanos);
+		for (int g = 0 ; g != score.length ; ++g)
+			captures[g] = score[g];
+		rats = rat_count;
+		turns++;
+	}
+
+	// add the metrics of a game to a total
+	synchronized void add(Metrics m)
+	{
+		for (int i = 0 ; i != phase.length ; ++i)
+			phase[i].add(m.phase[i]);
+		for (int g = 0 ; g != m.groups.length ; ++g) {
+			int s = seat(m.groups[g]);
+			play[s].add(m.play[g]);
+			captures[s] += m.captures[g];
+		}
+		games += m.games;
+		turns += m.turns;
+		rats += m.rats;
+	}
+
+	// seat of a group (added if new)
+	private int seat(String group)
+	{
+		for (int g = 0 ; g != groups.length ; ++g)
+			if (groups[g].equals(group)) return g;
+		int n = groups.length;
+		groups = Arrays.copyOf(groups, n + 1);
+		play = Arrays.copyOf(play, n + 1);
+		captures = Arrays.copyOf(captures, n + 1);
+		groups[n] = group;
+		play[n] = new Histogram();
+		return n;
+	}
+
+	// table of all phases & groups in microseconds
+	synchronized String text()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append(String.format("%-12s %9s %9s %9s %9s %9s %9s  (us)\n", "phase",
+		                         "count", "mean", "p50", "p99", "p99.9", "max"));
+		for (int i = 0 ; i != phase.length ; ++i)
+			if (phase[i].count != 0)
+				phase[i].row(buf, phases[i]);
+		// seats of the same group are merged
+		Metrics m = new Metrics(new String [0]);
+		m.add(this);
+		for (int g = 0 ; g != m.groups.length ; ++g)
+			m.play[g].row(buf, "play " + m.groups[g]);
+		buf.append("games " + games + ", turns " + turns + ", rats left " + rats + "\n");
+		buf.append("captures");
+		for (int g = 0 ; g != m.groups.length ; ++g)
+			buf.append((g == 0 ? " " : ", ") + m.groups[g] + " " + m.captures[g]);
+		return buf.append("\n").toString();
+	}
+
+	// log-linear histogram of nanoseconds (4 buckets per power of 2,
+	// so percentiles are within 25% of the exact value)
+	static class Histogram {
+
+		private final long[] bucket = new long [248];
+		long count = 0;
+		private long sum = 0;
+		private long max = 0;
+
+		void add(long v)
+		{
+			if (v < 0) v = 0;
+			bucket[index(v)]++;
+			count++;
+			sum += v;
+			if (v > max) max = v;
+		}
+
+		void add(Histogram h)
+		{
+			for (int i = 0 ; i != bucket.length ; ++i)
+				bucket[i] += h.bucket[i];
+			count += h.count;
+			sum += h.sum;
+			max = Math.max(max, h.max);
+		}
+
+		private static int index(long v)
+		{
+			if (v < 4) return (int) v;
+			int e = 63 - Long.numberOfLeadingZeros(v);
+			return (e - 1) * 4 + (int) ((v >>> (e - 2)) & 3);
+		}
+
+		// largest value of a bucket
+		private static long upper(int i)
+		{
+			if (i < 4) return i;
+			int e = i / 4 + 1;
+			return ((4L + i % 4 + 1) << (e - 2)) - 1;
+		}
+
+		// value below which a fraction of the samples are
+		long percentile(double q)
+		{
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (int i = 0 ; i != bucket.length ; ++i) {
+				seen += bucket[i];
+				if (seen >= rank && seen != 0)
+					return Math.min(upper(i), max);
+			}
+			return max;
+		}
+
+		void row(StringBuilder buf, String name)
+		{
+			double mean = count == 0 ? 0.0 : sum * 0.001 / count;
+			buf.append(String.format("%-12s %9d %9.1f %9.1f %9.1f %9.1f %9.1f\n",
+			                         name, count, mean,
+			                         percentile(0.5) * 0.001,
+			                         percentile(0.99) * 0.001,
+			                         percentile(0.999) * 0.001, max * 0.001));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package pppp.g7;
+
+/**
+ * Tunable constants of the strategy.
+ * <p>
+ * Players are created by the simulator through reflection, so a tuner
+ * selects the values with {@link #use(double[])} on the thread that
+ * creates the players of a game. Each player keeps the values that were
+ * current when it was constructed.
+ */
+public class Params {
+    private static final String[] NAMES = {
+            "friendPlaying", "friendMute", "enemyPlaying", "enemyMute",
+            "ratContested", "ratEnemy", "ratFriendly", "ratFree",
+            "ignoreRatDistance", "ignorePiperDistance", "groupSize",
+            "sweepStd", "densityRatio", "ratCloseEnough", "ratCaptured"};
+    private static final double[] DEFAULTS = {
+            5.0, 10.0, 16.0, 7.0,
+            -100.0, -7.0, -2.0, -7.0,
+            75.0, 85.0, 2,
+            30.0, 1.5, 5.0, 6.0};
+    private static final double[] LOWER = {
+            0.0, 0.0, 0.0, 0.0,
+            -200.0, -20.0, -20.0, -20.0,
+            20.0, 20.0, 1,
+            5.0, 0.5, 1.0, 2.0};
+    private static final double[] UPPER = {
+            20.0, 40.0, 40.0, 40.0,
+            0.0, 0.0, 0.0, 0.0,
+            150.0, 150.0, 4,
+            60.0, 4.0, 10.0, 10.0};
+
+    private static final ThreadLocal<double[]> current = new ThreadLocal<>();
+
+    // charges of pipers & rats in the potential field
+    public final double friendPlaying, friendMute, enemyPlaying, enemyMute;
+    public final double ratContested, ratEnemy, ratFriendly, ratFree;
+    // distances beyond which rats & pipers are left out of the field
+    public final double ignoreRatDistance, ignorePiperDistance;
+    // pipers per sweep group
+    public final int groupSize;
+    // rat clustering (std of rats per square) above which pipers sweep
+    public final double sweepStd;
+    // rat to piper density ratio above which pipers spread out
+    public final double densityRatio;
+    // distances at which a rat counts as reached & as captured
+    public final double ratCloseEnough, ratCaptured;
+
+    public Params(double[] v) {
+        if (v.length != NAMES.length) {
+            throw new IllegalArgumentException("Expected " + NAMES.length + " parameters");
+        }
+        friendPlaying = v[0];
+        friendMute = v[1];
+        enemyPlaying = v[2];
+        enemyMute = v[3];
+        ratContested = v[4];
+        ratEnemy = v[5];
+        ratFriendly = v[6];
+        ratFree = v[7];
+        ignoreRatDistance = v[8];
+        ignorePiperDistance = v[9];
+        groupSize = Math.max(1, (int) Math.round(v[10]));
+        sweepStd = v[11];
+        densityRatio = v[12];
+        ratCloseEnough = v[13];
+        ratCaptured = v[14];
+    }
+
+    /**
+     * Parameters for a new player: the values selected on this thread,
+     * otherwise the defaults.
+     */
+    public static Params current() {
+        double[] v = current.get();
+        return new Params(v == null ? DEFAULTS : v);
+    }
+
+    /**
+     * Selects the parameters of players created on this thread.
+     *
+     * @param values the parameter vector in {@link #names()} order, or null for the defaults
+     */
+    public static void use(double[] values) {
+        current.set(values == null ? null : values.clone());
+    }
+
+    public static String[] names() {
+        return NAMES.clone();
+    }
+
+    public static double[] defaults() {
+        return DEFAULTS.clone();
+    }
+
+    /**
+     * Lower bounds of the search range of each parameter.
+     */
+    public static double[] lower() {
+        return LOWER.clone();
+    }
+
+    /**
+     * Upper bounds of the search range of each parameter.
+     */
+    public static double[] upper() {
+        return UPPER.clone();
+    }
+}
@@ -0,0 +1,156 @@
+package pppp.sim;
+
+import java.util.Arrays;
+
+// uniform grid over the playing pipers (or all pipers), rebuilt once per turn
+class PiperGrid {
+
+	// music radius (also the cell size)
+	private final double radius;
+
+	// grid covers [-half, +half] on both axes
+	private final double half;
+	private final int cells;
+
+	// per cell linked list of entries (-1 terminated)
+	private final int[] head;
+
+	// entries (playing pipers)
+	private int size = 0;
+	private int[] next = new int [0];
+	private int[] cell = new int [0];
+	private int[] group = new int [0];
+	private int[] piper = new int [0];
+	private double[] px = new double [0];
+	private double[] py = new double [0];
+
+	PiperGrid(double half, double radius)
+	{
+		this.half = half;
+		this.radius = radius;
+		cells = Math.max(1, (int) Math.ceil(half * 2.0 / radius));
+		head = new int [cells * cells];
+		Arrays.fill(head, -1);
+	}
+
+	// cell coordinate of a position
+	private int index(double v)
+	{
+		int i = (int) Math.floor((v + half) / radius);
+		return i < 0 ? 0 : (i >= cells ? cells - 1 : i);
+	}
+
+	// same metric as Point.distance()
+	static double distance(double x1, double y1, double x2, double y2)
+	{
+		double x = x2 - x1;
+		double y = y2 - y1;
+		return Math.sqrt(x * x + y * y);
+	}
+
+	// index the pipers that play in this turn (all pipers if play is null)
+	void build(double[][] piper_x, double[][] piper_y, boolean[][] play)
+	{
+		// clear only the cells used in the previous turn
+		for (int i = 0 ; i != size ; ++i)
+			head[cell[i]] = -1;
+		size = 0;
+		int n = 0;
+		for (int g = 0 ; g != piper_x.length ; ++g)
+			n += piper_x[g].length;
+		if (next.length < n) {
+			next = new int [n];
+			cell = new int [n];
+			group = new int [n];
+			piper = new int [n];
+			px = new double [n];
+			py = new double [n];
+		}
+		for (int g = 0 ; g != piper_x.length ; ++g)
+			for (int p = 0 ; p != piper_x[g].length ; ++p) {
+				if (play != null && !play[g][p]) continue;
+				double x = piper_x[g][p];
+				double y = piper_y[g][p];
+				int c = index(y) * cells + index(x);
+				cell[size] = c;
+				group[size] = g;
+				piper[size] = p;
+				px[size] = x;
+				py[size] = y;
+				next[size] = head[c];
+				head[c] = size++;
+			}
+	}
+
+	// dominant group at position (-1 if none or tie)
+	// count is caller scratch space with one slot per group
+	int tune(double px, double py, int[] count)
+	{
+		Arrays.fill(count, 0);
+		int cx = index(px);
+		int cy = index(py);
+		for (int y = Math.max(cy - 1, 0) ; y <= Math.min(cy + 1, cells - 1) ; ++y)
+			for (int x = Math.max(cx - 1, 0) ; x <= Math.min(cx + 1, cells - 1) ; ++x)
+				for (int i = head[y * cells + x] ; i != -1 ; i = next[i])
+					if (distance(px, py, this.px[i], this.py[i]) <= radius)
+						count[group[i]]++;
+		int cc = 0;
+		int cg = -1;
+		for (int g = 0 ; g != count.length ; ++g) {
+			int c = count[g];
+			if (c == cc) cg = -1;
+			else if (c > cc) {
+				cg = g;
+				cc = c;
+			}
+		}
+		return cg;
+	}
+
+	// closest playing piper of group within radius (-1 if none)
+	// ties resolve to the lowest piper index as in a linear scan
+	int closest(double px, double py, int g)
+	{
+		int best = -1;
+		double best_dist = 0.0;
+		int cx = index(px);
+		int cy = index(py);
+		for (int y = Math.max(cy - 1, 0) ; y <= Math.min(cy + 1, cells - 1) ; ++y)
+			for (int x = Math.max(cx - 1, 0) ; x <= Math.min(cx + 1, cells - 1) ; ++x)
+				for (int i = head[y * cells + x] ; i != -1 ; i = next[i]) {
+					if (group[i] != g) continue;
+					double d = distance(px, py, this.px[i], this.py[i]);
+					if (d > radius) continue;
+					if (best == -1 || d < best_dist ||
+					    (d == best_dist && piper[i] < best)) {
+						best = piper[i];
+						best_dist = d;
+					}
+				}
+		return best;
+	}
+
+	// distance to the closest piper, or limit if no piper is closer
+	// (rings of cells around the position until no closer piper can be left)
+	double nearest(double px, double py, double limit)
+	{
+		double best = limit;
+		int cx = index(px);
+		int cy = index(py);
+		for (int d = 0 ; ; ++d) {
+			// pipers in ring d are at least d - 1 cells away
+			if ((d - 1) * radius >= best) return best;
+			int x0 = cx - d, x1 = cx + d, y0 = cy - d, y1 = cy + d;
+			if (x0 < 0 && y0 < 0 && x1 >= cells && y1 >= cells) return best;
+			for (int y = Math.max(y0, 0) ; y <= Math.min(y1, cells - 1) ; ++y) {
+				// inner rows of the ring only have their two end cells
+				int step = y == y0 || y == y1 ? 1 : x1 - x0;
+				for (int x = x0 ; x <= x1 ; x += step) {
+					if (x < 0 || x >= cells) continue;
+					for (int i = head[y * cells + x] ; i != -1 ; i = next[i])
+						best = Math.min(best, distance(px, py, this.px[i], this.py[i]));
+				}
+			}
+		}
+	}
+}
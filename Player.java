@@ -4,20 +4,45 @@ import pppp.sim.Move;
 import pppp.sim.Point;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
-public class Player implements pppp.sim.Player {
+public class Player implements pppp.sim.IdentifiedPlayer {
 
     // see details below
     private int id = -1;
     private int side = 0;
     private long tick;
     private Util util;
+    private final Params params = Params.current();
 
     private Point[][] prevPiperPos;
-    private Move[][] piperVel;
+    // positions as given last tick (a piper that did not move keeps its point)
+    private Point[][] sourcePiperPos;
+    // displacement of each piper since the last tick, dx at [g][2 * p] & dy at [g][2 * p + 1]
+    private double[][] piperVel;
+    // buffers of the unified frame reused every tick (the rat positions
+    // are kept as coordinates in the rat index)
+    private Point[][] transformedPiperPos;
+    private Move[] transformedMoves;
+    private int[] defaultIds;
     private PlayerState[] states;
+    private int[] ratIds;
+    private final RatIndex ratIndex = new RatIndex();
+    // reusable buffers for the indices found by radius queries
+    private int[] nearRats, zoneRats, nearPipers;
+    // reusable buffers for the strategy choice and the potential fields
+    private int[][] ratBins;
+    private boolean[] ratInFriendlyZone, ratInEnemyZone;
+    private final PotentialField.Buffers fieldBuffers = new PotentialField.Buffers();
+    // targets of the pipers retrieving single rats, solved once per tick
+    private RatAssignment assignment;
+    private long assignmentTick;
+    private boolean[] retrieving, depositing, fixed;
+    // densest spot for RetrieveMostRatsState, within a quarter of the best
+    // (the state looks again once its target holds 3/4 of what it had)
+    private final DiskCover diskCover = new DiskCover(10, 0.25);
     private HashMap<Integer, Integer> groupLookup;
     private HashMap<Integer, List<Integer>> groupReverseLookup;
 
@@ -30,12 +55,15 @@ public class Player implements pppp.sim.Player {
         this.side = side;
         groupLookup = new HashMap<>(pipers[id].length);
         groupReverseLookup = new HashMap<>(pipers[id].length);
-        int GROUPSIZE = 2;
+        int GROUPSIZE = params.groupSize;
 
         util = new Util(id == 3 || id == 2, id == 2 || id == 1, id == 1 || id == 3);
 
         this.prevPiperPos = new Point[pipers.length][pipers[0].length];
-        this.piperVel = new Move[pipers.length][pipers[0].length];
+        this.sourcePiperPos = new Point[pipers.length][pipers[0].length];
+        this.piperVel = new double[pipers.length][2 * pipers[0].length];
+        this.transformedPiperPos = new Point[pipers.length][pipers[0].length];
+        this.transformedMoves = new Move[pipers[id].length];
 
         for (int pid = 0; pid < pipers.length; ++pid) {
             for (int p = 0; p < pipers[pid].length; ++p) {
@@ -49,67 +77,117 @@ public class Player implements pppp.sim.Player {
                     groupReverseLookup.get(group).add(p);
                 }
                 this.prevPiperPos[pid][p] = util.transformPoint(pipers[pid][p]);
-                this.piperVel[pid][p] = new Move(0, 0, false);
+                this.sourcePiperPos[pid][p] = pipers[pid][p];
             }
         }
 
+        this.nearPipers = new int[pipers[id].length];
+        this.ratBins = new int[side / 10 + 1][side / 10 + 1];
+        this.assignment = new RatAssignment(pipers[id].length, RetrieveClosestRatState.DEPTH);
+        this.assignmentTick = -1;
+        this.retrieving = new boolean[pipers[id].length];
+        this.depositing = new boolean[pipers[id].length];
+        this.fixed = new boolean[pipers[id].length];
         this.states = new PlayerState[pipers[id].length];
         for (int i = 0; i < pipers[id].length; ++i) {
             this.states[i] = new DoorState();
         }
     }
 
-    // return next locations on last argument
+    // without rat ids the rat indices of this tick stand in for them
     public void play(Point[][] pipers, boolean[][] pipers_played,
                      Point[] rats, Move[] moves) {
+        if (defaultIds == null || defaultIds.length != rats.length) {
+            defaultIds = new int[rats.length];
+            for (int r = 0; r < defaultIds.length; ++r) {
+                defaultIds[r] = r;
+            }
+        }
+        play(pipers, pipers_played, rats, defaultIds, moves);
+    }
+
+    // return next locations on last argument
+    public void play(Point[][] pipers, boolean[][] pipers_played,
+                     Point[] rats, int[] ratIds, Move[] moves) {
         // increment tick
         ++tick;
+        this.ratIds = ratIds;
 
-        // transform coordinates
-        Point transformedPiperPos[][] = new Point[pipers.length][pipers[0].length];
-        Point transformedRatPos[] = new Point[rats.length];
+        // transform coordinates, only pipers that moved get a new point
+        if (nearRats == null || nearRats.length < rats.length) {
+            nearRats = new int[rats.length];
+            zoneRats = new int[rats.length];
+            ratInFriendlyZone = new boolean[rats.length];
+            ratInEnemyZone = new boolean[rats.length];
+        }
 
         for (int pid = 0; pid < pipers.length; ++pid) {
             for (int p = 0; p < pipers[pid].length; ++p) {
-                transformedPiperPos[pid][p] = util.transformPoint(pipers[pid][p]);
-                double dx = transformedPiperPos[pid][p].x - prevPiperPos[pid][p].x;
-                double dy = transformedPiperPos[pid][p].y - prevPiperPos[pid][p].y;
-                this.piperVel[pid][p] = new Move(dx, dy, pipers_played[pid][p]);
-                prevPiperPos[pid][p] = transformedPiperPos[pid][p];
+                Point s = pipers[pid][p];
+                Point t = s == sourcePiperPos[pid][p] ? prevPiperPos[pid][p] : util.transformPoint(s);
+                piperVel[pid][2 * p] = t.x - prevPiperPos[pid][p].x;
+                piperVel[pid][2 * p + 1] = t.y - prevPiperPos[pid][p].y;
+                transformedPiperPos[pid][p] = t;
+                prevPiperPos[pid][p] = t;
+                sourcePiperPos[pid][p] = s;
             }
         }
 
-        for (int r = 0; r < rats.length; ++r) {
-            transformedRatPos[r] = util.transformPoint(rats[r]);
+        // the rats are indexed in the same pass (as coordinates)
+        ratIndex.clear(side, rats.length);
+        for (Point r : rats) {
+            ratIndex.add(util.transformX(r.x, r.y), util.transformY(r.x, r.y));
         }
+        ratIndex.build();
 
         // perform computation
-        Move m[] = play_transformed(id, side, transformedPiperPos, piperVel, pipers_played, transformedRatPos);
+        play_transformed(id, side, transformedPiperPos, piperVel, pipers_played, ratIndex,
+                transformedMoves);
 
         // untransform coordinates
-        for (int i = 0; i < m.length; ++i) {
-            moves[i] = util.transformMove(m[i]);
+        for (int i = 0; i < transformedMoves.length; ++i) {
+            moves[i] = util.transformMove(transformedMoves[i]);
         }
     }
 
-    private PlayerState nextStrategicState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                           Point[] ratPos) {
-        double rat_density = ratPos.length * 1.0 / (side * side);
+    // rat of a retrieving piper, the team is solved at the first request of a
+    // tick and again if a piper starts retrieving later in the tick (pipers
+    // before it have moved already, so their targets are kept)
+    private int assignedRat(int pidx, Point[][] piperPos, RatIndex ratPos) {
+        if (assignmentTick != tick || !assignment.solvedFor(pidx)) {
+            boolean again = assignmentTick == tick;
+            for (int p = 0; p < states.length; ++p) {
+                retrieving[p] = states[p] instanceof RetrieveClosestRatState;
+                depositing[p] = states[p] instanceof DepositState;
+                fixed[p] = again && p < pidx && retrieving[p] && assignment.solvedFor(p);
+            }
+            assignment.solve(piperPos[id], retrieving, depositing, again ? fixed : null, ratPos, ratIds);
+            assignmentTick = tick;
+        }
+        return assignment.target(pidx);
+    }
+
+    private PlayerState nextStrategicState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                           RatIndex ratPos) {
+        double rat_density = ratPos.size() * 1.0 / (side * side);
         double player_density = piperPos[id].length * 1.0 / (side * side);
 
         // compute clustering
         int square_side = 10;
         int bins = side / square_side + 1;
-        int counter[][] = new int[bins][bins];
+        int counter[][] = ratBins;
+        for (int[] row : counter) {
+            Arrays.fill(row, 0);
+        }
 
-        for (int i = 0; i < ratPos.length; ++i) {
-            int x = (int) ((ratPos[i].x + side / 2) / square_side);
-            int y = (int) ((ratPos[i].y + side / 2) / square_side);
+        for (int i = 0; i < ratPos.size(); ++i) {
+            int x = (int) ((ratPos.x(i) + side / 2) / square_side);
+            int y = (int) ((ratPos.y(i) + side / 2) / square_side);
             counter[x][y]++;
         }
 
         int max_rats = 0;
-        double mean = ratPos.length * 1.0 / bins * bins;
+        double mean = ratPos.size() * 1.0 / bins * bins;
         double var = 0;
         for (int i = 0; i < counter.length; ++i) {
             for (int j = 0; j < counter[i].length; ++j) {
@@ -123,23 +201,23 @@ public class Player implements pppp.sim.Player {
         double std = Math.sqrt(var);
 
 
-        boolean ratInFriendlyZone[] = new boolean[ratPos.length];
-        boolean ratInEnemyZone[] = new boolean[ratPos.length];
+        boolean ratInFriendlyZone[] = this.ratInFriendlyZone;
+        boolean ratInEnemyZone[] = this.ratInEnemyZone;
 
         // initialize arrays
-        for (int i = 0; i < ratPos.length; ++i) {
+        for (int i = 0; i < ratPos.size(); ++i) {
             ratInEnemyZone[i] = false;
             ratInFriendlyZone[i] = false;
         }
 
         for (int e = 0; e < piperPos.length; ++e) {
             for (int i = 0; i < piperPos[e].length; ++i) {
-                List<Integer> nearby = util.getIndicesWithinDistance(piperPos[e][i], ratPos, 10);
-                for (int j : nearby) {
+                int nearby = ratIndex.fillIndicesWithinDistance(piperPos[e][i], 10, nearRats);
+                for (int k = 0; k < nearby; ++k) {
                     if (e == id) {
-                        ratInFriendlyZone[j] = true;
+                        ratInFriendlyZone[nearRats[k]] = true;
                     } else {
-                        ratInEnemyZone[j] = true;
+                        ratInEnemyZone[nearRats[k]] = true;
                     }
                 }
             }
@@ -147,7 +225,7 @@ public class Player implements pppp.sim.Player {
 
         int unattached_rats = 0;
         int enemy_range_rats = 0;
-        for (int i = 0; i < ratPos.length; ++i) {
+        for (int i = 0; i < ratPos.size(); ++i) {
             if (ratInEnemyZone[i]) {
                 ++enemy_range_rats;
             }
@@ -156,12 +234,12 @@ public class Player implements pppp.sim.Player {
             }
         }
 
-        double frac_unattached = unattached_rats * 1.0 / ratPos.length;
-        double frac_enemy_range = enemy_range_rats * 1.0 / ratPos.length;
+        double frac_unattached = unattached_rats * 1.0 / ratPos.size();
+        double frac_enemy_range = enemy_range_rats * 1.0 / ratPos.size();
 
-        if (std > 30) {
+        if (std > params.sweepStd) {
             return new SweepState();
-        } else if ((rat_density / player_density) >= 1.5) {
+        } else if ((rat_density / player_density) >= params.densityRatio) {
             if (pidx < piperPos[id].length * frac_unattached + 0.5) {
                 return new RetrieveClosestRatState();
             } else {
@@ -179,10 +257,9 @@ public class Player implements pppp.sim.Player {
         }
     }
 
-    private Move[] play_transformed(int id, int side, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                    Point[] ratPos) {
+    private void play_transformed(int id, int side, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                  RatIndex ratPos, Move[] m) {
         // THE ENEMIES GATE IS DOWN!!!
-        Move m[] = new Move[piperPos[id].length];
 
         // state machine
         for (int p = 0; p < piperPos[id].length; ++p) {
@@ -193,17 +270,16 @@ public class Player implements pppp.sim.Player {
             }
             m[p] = states[p].computeMove(p, piperPos, piperVel, pipers_played, ratPos);
         }
-        return m;
     }
 
     public interface PlayerState {
-        PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                              Point[] ratPos);
+        PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                              RatIndex ratPos);
 
-        Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played, Point[] ratPos);
+        Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played, RatIndex ratPos);
 
-        boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                              Point[] ratPos);
+        boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                              RatIndex ratPos);
 
         boolean sameStateAs(PlayerState other);
     }
@@ -219,14 +295,14 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                Point[] ratPos) {
+        public Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                RatIndex ratPos) {
             return Util.moveToLoc(piperPos[id][pidx], dest, playing);
         }
 
         @Override
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             return piperPos[id][pidx].distance(dest) < TOLERANCE;
         }
 
@@ -248,8 +324,8 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             return nextStrategicState(pidx, piperPos, piperVel, pipers_played, ratPos);
         }
 
@@ -262,7 +338,7 @@ public class Player implements pppp.sim.Player {
     public class RetrieveClosestRatState extends GoToLocationState {
         private static final int REACQUIRE_TICKS = 1;
         private static final int DEPTH = 1;
-        private static final double RAT_IS_CLOSE_ENOUGH_DIST = 5.0;
+        // id of the rat to retrieve (stays valid when other rats are caught)
         public int targetRat;
         private long startTick;
 
@@ -273,29 +349,33 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                Point[] ratPos) {
+        public Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                RatIndex ratPos) {
             if ((tick - startTick) % REACQUIRE_TICKS == 0 || dest.distance(piperPos[id][pidx]) < 1) {
-                targetRat = util.getClosestRat(id, states, pidx, piperPos, piperVel, pipers_played, ratPos, DEPTH);
-                dest = ratPos[targetRat];
+                int closest = assignedRat(pidx, piperPos, ratPos);
+                if (closest >= 0) {
+                    targetRat = ratIds[closest];
+                    dest = ratPos.point(closest);
+                }
             }
             return super.computeMove(pidx, piperPos, piperVel, pipers_played, ratPos);
         }
 
         @Override
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
-            List<Integer> rats = util.getIndicesWithinDistance(piperPos[id][pidx], ratPos, RAT_IS_CLOSE_ENOUGH_DIST);
-
-            if (ratPos.length <= piperPos[id].length) {
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
+            if (ratPos.size() <= piperPos[id].length) {
                 return super.stateComplete(pidx, piperPos, piperVel, pipers_played, ratPos);
             }
 
-            int numRats = rats.size();
+            int rats = ratIndex.fillIndicesWithinDistance(piperPos[id][pidx], params.ratCloseEnough, nearRats);
+            int numRats = rats;
 
-            for (Integer r : rats) {
+            for (int k = 0; k < rats; ++k) {
                 int localdepth = 0;
-                for (Integer p : util.getIndicesWithinDistance(ratPos[r], piperPos[id], 10)) {
+                int pipers = Util.fillIndicesWithinDistance(ratPos.point(nearRats[k]), piperPos[id], 10, nearPipers);
+                for (int q = 0; q < pipers; ++q) {
+                    int p = nearPipers[q];
                     if (p == pidx) {
                         continue;
                     }
@@ -313,9 +393,9 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
-            if (ratPos.length == 1) {
+        public PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
+            if (ratPos.size() == 1) {
                 return new FightState();
             } else {
                 return new DepositState();
@@ -337,10 +417,10 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                Point[] ratPos) {
+        public Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                RatIndex ratPos) {
             Point pp = piperPos[id][pidx];
-            Point rp = ratPos[0];
+            Point rp = ratPos.point(0);
             double dist = pp.distance(rp);
             Move m = null;
 
@@ -379,8 +459,8 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             // never transition out
             return false;
         }
@@ -395,10 +475,9 @@ public class Player implements pppp.sim.Player {
         private Point target = new Point(0, 0);
 
         @Override
-        public Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                Point[] ratPos) {
-            List<Integer> pos = util.getIndicesWithinDistance(target, ratPos, 10.0);
-            if (pos.size() <= max_rats * .75) {
+        public Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                RatIndex ratPos) {
+            if (ratIndex.countWithinDistance(target, 10.0) <= max_rats * .75) {
                 update_most_rats(pidx, piperPos, piperVel, pipers_played, ratPos);
             }
             counter = (counter + 1); // % 10;
@@ -406,11 +485,10 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
-            List<Integer> pos = util.getIndicesWithinDistance(piperPos[id][pidx], ratPos, 10.0);
-            List<Integer> pos2 = util.getIndicesWithinDistance(target, ratPos, 10.0);
-            return max_rats <= 1 || pos.size() >= pos2.size();// - 1;
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
+            return max_rats <= 1 || ratIndex.countWithinDistance(piperPos[id][pidx], 10.0)
+                    >= ratIndex.countWithinDistance(target, 10.0);// - 1;
         }
 
         @Override
@@ -419,10 +497,9 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
-            List<Integer> rats = util.getIndicesWithinDistance(piperPos[id][pidx], ratPos, 10);
-            if (rats.isEmpty()) {
+        public PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
+            if (!ratIndex.anyWithinDistance(piperPos[id][pidx], 10)) {
                 if (max_rats <= 1) {
                     return new RetrieveClosestRatState();
                 } else {
@@ -433,68 +510,29 @@ public class Player implements pppp.sim.Player {
             }
         }
 
-        private void update_most_rats(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                      Point[] ratPos) {
-            max_rats = 1;
-            target = ratPos[(int) (Math.random() * ratPos.length)];
-
-            ArrayList<Point> realRatPos = new ArrayList<>();
-            for (Point p : ratPos) {
+        private void update_most_rats(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                      RatIndex ratPos) {
+            // rats held by the other playing pipers are left out
+            diskCover.clear(side, ratPos.size());
+            for (int r = 0; r < ratPos.size(); ++r) {
+                double x = ratPos.x(r), y = ratPos.y(r);
                 boolean ok = true;
-                for (int i = 0; i < piperPos[id].length; i++) {
-                    if (i != pidx && pipers_played[id][i]) {
-                        if (piperPos[id][i].distance(p) <= 10) {
-                            ok = false;
-                        }
+                for (int i = 0; i < piperPos[id].length && ok; i++) {
+                    if (i != pidx && pipers_played[id][i] && RatIndex.distance(piperPos[id][i], x, y) <= 10) {
+                        ok = false;
                     }
                 }
                 if (ok) {
-                    realRatPos.add(p);
+                    diskCover.add(x, y);
                 }
             }
+            diskCover.build();
 
-            for (int i = 0; i < realRatPos.size(); i++) {
-                for (int j = i + 1; j < realRatPos.size(); j++) {
-                    if (ratPos[i].distance(ratPos[j]) <= 10 * 2) {
-                        Point p1 = getCenterByRadiusAndPoints(ratPos[i], ratPos[j], 10);
-                        Point p2 = getCenterByRadiusAndPoints(ratPos[j], ratPos[i], 10);
-                        int s1 = 0, s2 = 0;
-                        for (Point k : realRatPos) {
-                            if (k.distance(p1) <= 10) {
-                                s1++;
-                            }
-                            if (k.distance(p2) <= 10) {
-                                s2++;
-                            }
-                        }
-                        if (s1 > max_rats) {
-                            max_rats = s1;
-                            target = p1;
-                        }
-                        if (s2 > max_rats) {
-                            max_rats = s2;
-                            target = p2;
-                        }
-
-                    }
-                }
-            }
+            // the last target is the starting point (the center is kept if nothing beats it)
+            max_rats = Math.max(1, diskCover.solve(target));
+            target = diskCover.center();
         }
 
-        private Point getCenterByRadiusAndPoints(Point a, Point b, double radius) {
-
-            Point mid = new Point((a.x + b.x) / 2, (a.y + b.y) / 2);
-            double angleMidToCenter = Math.atan2(b.y - a.y, b.x - a.x) + Math.PI / 2;
-
-            double distAToB = a.distance(b);
-            double distMidToCenter = Math.sqrt(radius * radius - distAToB * distAToB);
-
-            return new Point(mid.x + distMidToCenter * Math.cos(angleMidToCenter),
-                    mid.y + distMidToCenter * Math.sin(angleMidToCenter));
-
-        }
-
-
         @Override
         public String toString() {
             return util.stateName(this);
@@ -507,8 +545,8 @@ public class Player implements pppp.sim.Player {
             super(new Point(0, 0), false);
         }
 
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             int max_pidx = piperPos[id].length;
 
             // group into sets of 2
@@ -522,22 +560,23 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             Point destination = new Point(0, side / 2);
             long endTime = tick + (long)(side / 0.1 * 4);
             return new PlayerState() {
                 @Override
-                public PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel,
-                                             boolean[][] pipers_played, Point[] ratPos) {
+                public PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel,
+                                             boolean[][] pipers_played, RatIndex ratPos) {
                     return new DepositState();
                 }
 
                 @Override
-                public Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel,
-                                        boolean[][] pipers_played, Point[] ratPos) {
+                public Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel,
+                                        boolean[][] pipers_played, RatIndex ratPos) {
 //                    long ntime = System.nanoTime();
-                    PotentialField pf = new PotentialField(util, side, id, pidx, true, piperPos, piperVel, pipers_played, ratPos);
+                    PotentialField pf = new PotentialField(util, params, side, id, pidx, true, piperPos, piperVel, pipers_played,
+                            ratIndex, nearRats, zoneRats, fieldBuffers);
 
                     // add in a destination point
                     pf.addPotential(destination, -400.0);
@@ -549,8 +588,8 @@ public class Player implements pppp.sim.Player {
                 }
 
                 @Override
-                public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel,
-                                             boolean[][] pipers_played, Point[] ratPos) {
+                public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel,
+                                             boolean[][] pipers_played, RatIndex ratPos) {
                     return (tick > endTime) || (side / 2 - piperPos[id][pidx].y) < 0.2 * (side / 2);
                 }
 
@@ -582,15 +621,15 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public Move computeMove(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                Point[] ratPos) {
+        public Move computeMove(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                RatIndex ratPos) {
             group = groupLookup.get(pidx);
             return new Move(0, 0, true);
         }
 
         @Override
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             if (letsGo) {
                 return true;
             }
@@ -628,7 +667,6 @@ public class Player implements pppp.sim.Player {
     public class DepositState extends GoToLocationState {
         // max rat distance divided by max rat speed
         private static final double MAX_WAIT_TICKS = 2 * 10 / 0.01 + 10e9;
-        private static final double RAT_IS_CAPTURED_DISTANCE = 6;
 
         private long startTick;
         private int numRatsAtLastCheck;
@@ -642,13 +680,12 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public boolean stateComplete(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public boolean stateComplete(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             boolean atLoc = super.stateComplete(pidx, piperPos, piperVel, pipers_played, ratPos);
 
-            List<Integer> rats = util.getIndicesWithinDistance(piperPos[id][pidx], ratPos, RAT_IS_CAPTURED_DISTANCE);
-            this.numRatsAtLastCheck = rats.size();
-            if (rats.isEmpty()) {
+            this.numRatsAtLastCheck = ratIndex.countWithinDistance(piperPos[id][pidx], params.ratCaptured);
+            if (numRatsAtLastCheck == 0) {
                 return true;
             }
 
@@ -677,8 +714,8 @@ public class Player implements pppp.sim.Player {
         }
 
         @Override
-        public PlayerState nextState(int pidx, Point[][] piperPos, Move[][] piperVel, boolean[][] pipers_played,
-                                     Point[] ratPos) {
+        public PlayerState nextState(int pidx, Point[][] piperPos, double[][] piperVel, boolean[][] pipers_played,
+                                     RatIndex ratPos) {
             if (inApproach) {
                 // terminated early! :(
                 return nextStrategicState(pidx, piperPos, piperVel, pipers_played, ratPos);
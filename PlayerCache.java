@@ -0,0 +1,212 @@
+package pppp.sim;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import javax.tools.*;
+
+// players compiled in memory and cached by a hash of their sources
+// (every version of a group has its own class loader so versions can
+//  coexist, games keep the version they started with)
+class PlayerCache {
+
+	private static final PlayerCache shared = new PlayerCache("pppp");
+
+	// cache shared by all games of this JVM
+	static PlayerCache shared()
+	{
+		return shared;
+	}
+
+	// folder of the groups
+	private final String root;
+
+	// check for changed sources on load (at most once per interval)
+	private boolean watch = false;
+	private long watch_interval = 1000;
+
+	// current version of every group & all versions loaded by hash
+	private final Map <String, Version> current = new HashMap <String, Version> ();
+	private final Map <String, Class <?>> versions = new HashMap <String, Class <?>> ();
+
+	private static class Version {
+
+		final String hash;
+		long stamp;
+		long checked;
+		final Class <?> player;
+
+		Version(String hash, long stamp, Class <?> player)
+		{
+			this.hash = hash;
+			this.stamp = stamp;
+			this.checked = System.currentTimeMillis();
+			this.player = player;
+		}
+	}
+
+	PlayerCache(String root)
+	{
+		this.root = root;
+	}
+
+	// swap in changed sources while games are running
+	synchronized void watch(boolean watch)
+	{
+		this.watch = watch;
+	}
+
+	// player class of the current version of a group
+	synchronized Class <?> load(String group) throws IOException,
+	                                             ReflectiveOperationException
+	{
+		Version v = current.get(group);
+		if (v == null) return reload(group);
+		if (watch && System.currentTimeMillis() - v.checked >= watch_interval) {
+			v.checked = System.currentTimeMillis();
+			return reload(group);
+		}
+		return v.player;
+	}
+
+	// check the sources of a group and switch version if they changed
+	synchronized Class <?> reload(String group) throws IOException,
+	                                               ReflectiveOperationException
+	{
+		File dir = new File(root + File.separator + group);
+		List <File> sources = new ArrayList <File> ();
+		if (dir.isDirectory())
+			sources.addAll(Simulator1.directory(dir.getPath(), ".java"));
+		Collections.sort(sources);
+		Version v = current.get(group);
+		// precompiled player without sources
+		if (sources.isEmpty()) {
+			if (v != null) return v.player;
+			File class_file = new File(dir, "Player.class");
+			if (!class_file.exists())
+				throw new FileNotFoundException("Missing source of group " + group);
+			ClassLoader loader = Simulator.class.getClassLoader();
+			Class <?> player = loader.loadClass(root + "." + group + ".Player");
+			current.put(group, new Version("", 0, player));
+			return player;
+		}
+		// unchanged files
+		long stamp = stamp(sources);
+		if (v != null && v.stamp == stamp) return v.player;
+		// unchanged contents
+		String hash = hash(dir, sources);
+		if (v != null && v.hash.equals(hash)) {
+			v.stamp = stamp;
+			return v.player;
+		}
+		Class <?> player = versions.get(group + "@" + hash);
+		if (player == null) {
+			player = compile(group, sources);
+			versions.put(group + "@" + hash, player);
+		}
+		if (v != null)
+			System.err.println("Group " + group + " now at version " + hash.substring(0, 8));
+		current.put(group, new Version(hash, stamp, player));
+		return player;
+	}
+
+	// cheap summary of file sizes and modification times
+	private static long stamp(List <File> files)
+	{
+		long stamp = files.size();
+		for (File file : files)
+			stamp = stamp * 31 + file.lastModified() * 17 + file.length();
+		return stamp;
+	}
+
+	// hash of the relative paths and contents of the sources
+	private static String hash(File dir, List <File> files) throws IOException
+	{
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		String base = dir.getPath();
+		for (File file : files) {
+			digest.update(file.getPath().substring(base.length()).getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(file.toPath()));
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	// compile the sources of a group in memory and load them in a new loader
+	private Class <?> compile(String group, List <File> sources)
+	                      throws IOException, ReflectiveOperationException
+	{
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IOException("No Java compiler available to compile " + group);
+		StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+		Map <String, byte[]> classes = new HashMap <String, byte[]> ();
+		JavaFileManager manager = new ForwardingJavaFileManager <StandardJavaFileManager> (files) {
+			public JavaFileObject getJavaFileForOutput(Location location, String name,
+			                                           JavaFileObject.Kind kind,
+			                                           FileObject sibling)
+			{
+				URI uri = URI.create("mem:///" + name.replace('.', '/') + kind.extension);
+				return new SimpleJavaFileObject(uri, kind) {
+					public OutputStream openOutputStream()
+					{
+						return new ByteArrayOutputStream() {
+							public void close()
+							{
+								classes.put(name, toByteArray());
+							}
+						};
+					}
+				};
+			}
+		};
+		System.err.print("Compiling " + group + " (" + sources.size() + " files) ... ");
+		List <String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"));
+		if (!compiler.getTask(null, manager, null, options, null,
+		                      files.getJavaFileObjectsFromFiles(sources)).call())
+			throw new IOException("Cannot compile source of " + group);
+		System.err.println("done!");
+		ClassLoader loader = new GroupLoader(classes, Simulator.class.getClassLoader());
+		return loader.loadClass(root + "." + group + ".Player");
+	}
+
+	// loads the classes of one group version before asking the parent
+	// (so stale class files of the group on the class path are ignored)
+	private static class GroupLoader extends ClassLoader {
+
+		private final Map <String, byte[]> classes;
+
+		GroupLoader(Map <String, byte[]> classes, ClassLoader parent)
+		{
+			super(parent);
+			this.classes = classes;
+		}
+
+		protected Class <?> loadClass(String name, boolean resolve)
+		                              throws ClassNotFoundException
+		{
+			synchronized (getClassLoadingLock(name)) {
+				Class <?> c = findLoadedClass(name);
+				if (c == null) {
+					byte[] bytes = classes.get(name);
+					if (bytes == null)
+						return super.loadClass(name, resolve);
+					c = defineClass(name, bytes, 0, bytes.length);
+				}
+				if (resolve) resolveClass(c);
+				return c;
+			}
+		}
+	}
+}
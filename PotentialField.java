@@ -3,50 +3,82 @@ package pppp.g7;
 import pppp.sim.Move;
 import pppp.sim.Point;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Created by rbtying on 9/22/15.
  */
 public class PotentialField {
     private static final double TESTPOINT_CHARGE = 1.0;
-    private static final double IGNORE_RAT_DISTANCE = 75.0;
-    private static final double IGNORE_PIPER_DISTANCE = 85.0;
 
-    private ArrayList<Point> points;
-    private ArrayList<Double> charges;
+    /**
+     * Arrays owned by a player and reused by the fields of every piper and
+     * tick, grown to the number of pipers and rats when needed
+     */
+    public static class Buffers {
+        private Point[] points = new Point[0];
+        private double[] charges = new double[0];
+        private boolean[] ratInFriendlyZone = new boolean[0];
+        private boolean[] ratInEnemyZone = new boolean[0];
+        private boolean[] ratInMyZone = new boolean[0];
+
+        /**
+         * @param charges number of charges a field will hold, more are
+         *                added by growing the arrays
+         * @param rats    number of rats of the tick
+         */
+        public void reserve(int charges, int rats) {
+            if (points.length < charges) {
+                points = new Point[charges];
+                this.charges = new double[charges];
+            }
+            if (ratInMyZone.length < rats) {
+                ratInFriendlyZone = new boolean[rats];
+                ratInEnemyZone = new boolean[rats];
+                ratInMyZone = new boolean[rats];
+            }
+        }
+    }
+
+    private Buffers buffers;
+    private int count;
     private Point testPoint;
     private boolean willPlay;
     private Util u;
+    private Params params;
+    private RatIndex ratIndex;
+    private int[] nearRats, zoneRats;
     private int side;
 
-    public PotentialField(Util u, int side, int id, int pidx, boolean willPlay, Point piperPos[][], Move piperVel[][], boolean pipersPlaying[][], Point ratPos[]) {
-        int initial_size = piperPos.length * piperPos[id].length + ratPos.length;
-        points = new ArrayList<>(initial_size);
-        charges = new ArrayList<>(initial_size);
+    public PotentialField(Util u, Params params, int side, int id, int pidx, boolean willPlay, Point piperPos[][], double piperVel[][], boolean pipersPlaying[][],
+                          RatIndex ratIndex, int[] nearRats, int[] zoneRats, Buffers buffers) {
+        buffers.reserve(piperPos.length * piperPos[id].length + ratIndex.size() + 1, ratIndex.size());
+        this.buffers = buffers;
+        this.count = 0;
         testPoint = piperPos[id][pidx];
         this.side = side;
         this.willPlay = willPlay;
         this.u = u;
+        this.params = params;
+        this.ratIndex = ratIndex;
+        this.nearRats = nearRats;
+        this.zoneRats = zoneRats;
 
-        initializePotentialField(id, pidx, piperPos, pipersPlaying, ratPos);
+        initializePotentialField(id, pidx, piperPos, pipersPlaying);
     }
 
-    public void initializePotentialField(int id, int pidx, Point piperPos[][], boolean pipersPlaying[][], Point ratPosAll[]) {
+    public void initializePotentialField(int id, int pidx, Point piperPos[][], boolean pipersPlaying[][]) {
 
-        List<Integer> rats = u.getIndicesWithinDistance(piperPos[id][pidx], ratPosAll, IGNORE_RAT_DISTANCE);
-        Point[] ratPos = new Point[rats.size()];
-        for (int i = 0; i < rats.size(); ++i) {
-            ratPos[i] = ratPosAll[rats.get(i)];
-        }
+        // the rats of the field are the first n of nearRats and the ones in a
+        // zone are looked up there (both are ascending)
+        int n = ratIndex.fillIndicesWithinDistance(piperPos[id][pidx], params.ignoreRatDistance, nearRats);
 
-        boolean ratInFriendlyZone[] = new boolean[ratPos.length];
-        boolean ratInEnemyZone[] = new boolean[ratPos.length];
-        boolean ratInMyZone[] = new boolean[ratPos.length];
+        boolean ratInFriendlyZone[] = buffers.ratInFriendlyZone;
+        boolean ratInEnemyZone[] = buffers.ratInEnemyZone;
+        boolean ratInMyZone[] = buffers.ratInMyZone;
 
         // initialize arrays
-        for (int i = 0; i < ratPos.length; ++i) {
+        for (int i = 0; i < n; ++i) {
             ratInEnemyZone[i] = false;
             ratInFriendlyZone[i] = false;
             ratInMyZone[i] = false;
@@ -57,10 +89,13 @@ public class PotentialField {
                 addFriendlyPiper(piperPos[id][i], pipersPlaying[id][i]);
             }
 
-            if (piperPos[id][i].distance(testPoint) <= IGNORE_PIPER_DISTANCE) {
-                List<Integer> nearby = u.getIndicesWithinDistance(piperPos[id][i], ratPos, 10);
-                for (int j : nearby) {
-                    if (i == pidx) {
+            if (piperPos[id][i].distance(testPoint) <= params.ignorePiperDistance) {
+                int nearby = ratIndex.fillIndicesWithinDistance(piperPos[id][i], 10, zoneRats);
+                for (int k = 0; k < nearby; ++k) {
+                    int j = Arrays.binarySearch(nearRats, 0, n, zoneRats[k]);
+                    if (j < 0) {
+                        // outside the rats of the field
+                    } else if (i == pidx) {
                         ratInMyZone[j] = true;
                     } else {
                         ratInFriendlyZone[j] = true;
@@ -77,18 +112,21 @@ public class PotentialField {
             // Only care about enemy that are close
             for (int i = 0; i < piperPos[e].length; ++i) {
                 addEnemyPiper(piperPos[e][i], pipersPlaying[e][i]);
-                if (piperPos[e][i].distance(testPoint) <= IGNORE_PIPER_DISTANCE) {
-                    List<Integer> nearby = u.getIndicesWithinDistance(piperPos[e][i], ratPos, 10);
-                    for (int j : nearby) {
-                        ratInEnemyZone[j] = true;
+                if (piperPos[e][i].distance(testPoint) <= params.ignorePiperDistance) {
+                    int nearby = ratIndex.fillIndicesWithinDistance(piperPos[e][i], 10, zoneRats);
+                    for (int k = 0; k < nearby; ++k) {
+                        int j = Arrays.binarySearch(nearRats, 0, n, zoneRats[k]);
+                        if (j >= 0) {
+                            ratInEnemyZone[j] = true;
+                        }
                     }
                 }
             }
         }
 
-        for (int i = 0; i < ratPos.length; ++i) {
+        for (int i = 0; i < n; ++i) {
             if (!ratInMyZone[i]) {
-                addRat(ratPos[i], ratInFriendlyZone[i], ratInEnemyZone[i]);
+                addRat(ratIndex.point(nearRats[i]), ratInFriendlyZone[i], ratInEnemyZone[i]);
             }
         }
     }
@@ -96,20 +134,20 @@ public class PotentialField {
     public void addFriendlyPiper(Point loc, boolean playing) {
         if (playing) {
             // ok to go towards friendly playing
-            addPotential(loc, 5.0);
+            addPotential(loc, params.friendPlaying);
         } else {
             // go far away from friendly non-playing
-            addPotential(loc, 10.0);
+            addPotential(loc, params.friendMute);
         }
     }
 
     public void addEnemyPiper(Point loc, boolean playing) {
         if (playing) {
             // try to avoid enemy playing
-            addPotential(loc, 16.0);
+            addPotential(loc, params.enemyPlaying);
         } else {
             // try less hard to avoid enemy non-playing
-            addPotential(loc, 7.0);
+            addPotential(loc, params.enemyMute);
         }
 
     }
@@ -117,28 +155,34 @@ public class PotentialField {
     public void addRat(Point loc, boolean listeningToFriendly, boolean listeningToEnemy) {
         if (listeningToEnemy && listeningToFriendly) {
             // reinforce!!
-            addPotential(loc, -100.0);
+            addPotential(loc, params.ratContested);
         } else if (listeningToEnemy) {
-            addPotential(loc, -7.0);
+            addPotential(loc, params.ratEnemy);
         } else if (listeningToFriendly) {
-            addPotential(loc, -2.0);
+            addPotential(loc, params.ratFriendly);
         } else {
             // go toward rats that are unclaimed
-            addPotential(loc, -7.0);
+            addPotential(loc, params.ratFree);
         }
     }
 
     public void addPotential(Point pos, double charge) {
-        points.add(pos);
-        charges.add(charge);
-        assert points.size() == charges.size();
+        if (count == buffers.points.length) {
+            buffers.points = Arrays.copyOf(buffers.points, 2 * count + 1);
+            buffers.charges = Arrays.copyOf(buffers.charges, 2 * count + 1);
+        }
+        buffers.points[count] = pos;
+        buffers.charges[count] = charge;
+        ++count;
     }
 
     public double getPotential(Point loc, double charge) {
+        Point[] points = buffers.points;
+        double[] charges = buffers.charges;
         double potential = 0;
-        for (int i = 0; i < points.size(); ++i) {
-            double r = loc.distance(points.get(i));
-            potential += charge * charges.get(i) / r;
+        for (int i = 0; i < count; ++i) {
+            double r = loc.distance(points[i]);
+            potential += charge * charges[i] / r;
         }
 
         potential += loc.x * loc.x * 0.010;
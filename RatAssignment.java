@@ -0,0 +1,267 @@
+package pppp.g7;
+
+import pppp.sim.Point;
+
+import java.util.Arrays;
+
+/**
+ * Targets of the pipers that retrieve single rats, solved for the whole
+ * team at once.
+ * <p>
+ * Each piper considers its {@link #K} nearest rats from the
+ * {@link RatIndex} and the rat it targeted before. Pairs are taken
+ * greedily, closest first, while the rat is held by fewer than depth
+ * pipers. A depositing piper within capture range of a rat also holds it.
+ * A piper left without a candidate gets the closest free rat on the
+ * board. Repair passes then swap targets while that shortens the total
+ * distance; after the first pass only swaps with a piper changed by the
+ * pass before are tried. The previous target of a piper counts as
+ * {@link #STICKINESS} closer, so near ties do not flip between ticks.
+ * Pipers can be kept fixed, so a piper added later in a tick does not move
+ * the targets of the pipers that have already moved.
+ */
+public class RatAssignment {
+    // nearest rats considered per piper
+    private static final int K = 8;
+    // bonus of the previous target of a piper
+    private static final double STICKINESS = 1.0;
+    // range within which a depositing piper holds a rat
+    private static final double HOLD_DISTANCE = 10 + 1e-5;
+
+    private final int depth;
+    private final int pipers;
+    // id of the rat targeted by each piper (-1 if none), kept between solutions
+    private final int[] targetId;
+    // index of the rat targeted by each piper in the last solution (-1 if none)
+    private final int[] target;
+    private final int[] previous;
+    private final boolean[] solved;
+    // candidates of piper p are slots p * (K + 1) to p * (K + 1) + count[p] - 1
+    private final int[] candRat;
+    private final double[] candCost;
+    private final int[] count;
+    // candidate slots in greedy order, cost (as float bits) above the slot,
+    // pairs with the same float cost are put in order by their exact cost
+    private final long[] pairs;
+    // pipers whose target changed in the last repair pass & in this one
+    private final boolean[] changed, swapped;
+    private final int[] nearIdx = new int[K];
+    private final double[] nearDist = new double[K];
+    // pipers holding each rat & rats near a piper
+    private int[] load = new int[0];
+    private int[] buffer = new int[0];
+
+    public RatAssignment(int pipers, int depth) {
+        this.pipers = pipers;
+        this.depth = depth;
+        targetId = new int[pipers];
+        Arrays.fill(targetId, -1);
+        target = new int[pipers];
+        previous = new int[pipers];
+        solved = new boolean[pipers];
+        candRat = new int[pipers * (K + 1)];
+        candCost = new double[pipers * (K + 1)];
+        count = new int[pipers];
+        pairs = new long[pipers * (K + 1)];
+        changed = new boolean[pipers];
+        swapped = new boolean[pipers];
+    }
+
+    /**
+     * @return whether the last solution covered the piper
+     */
+    public boolean solvedFor(int pidx) {
+        return solved[pidx];
+    }
+
+    /**
+     * @return index of the rat assigned to the piper in the last solution,
+     * or -1 if there are no rats
+     */
+    public int target(int pidx) {
+        return solved[pidx] ? target[pidx] : -1;
+    }
+
+    /**
+     * Assigns a rat to every retrieving piper.
+     *
+     * @param piperPos   positions of the pipers of the team
+     * @param retrieving pipers to assign
+     * @param depositing pipers that hold the rats around them
+     * @param fixed      retrieving pipers that keep their target of the last
+     *                   solution, which must be of the same tick (null if none)
+     * @param ratIndex   index & positions of the rats of this tick
+     * @param ratIds     permanent ids of the rats (in increasing order)
+     */
+    public void solve(Point[] piperPos, boolean[] retrieving, boolean[] depositing, boolean[] fixed,
+                      RatIndex ratIndex, int[] ratIds) {
+        int n = ratIndex.size();
+        if (load.length < n) {
+            load = new int[n];
+            buffer = new int[n];
+        }
+        Arrays.fill(load, 0, n, 0);
+        for (int p = 0; p < pipers; ++p) {
+            if (depositing[p]) {
+                int m = ratIndex.fillIndicesWithinDistance(piperPos[p], HOLD_DISTANCE, buffer);
+                for (int j = 0; j < m; ++j) {
+                    ++load[buffer[j]];
+                }
+            }
+            if (fixed != null && fixed[p] && target[p] >= 0) {
+                ++load[target[p]];
+            }
+        }
+
+        // candidates, the previous target is kept even if it is not among the nearest
+        int slots = 0;
+        for (int p = 0; p < pipers; ++p) {
+            if (fixed != null && fixed[p]) {
+                count[p] = 0;
+                continue;
+            }
+            solved[p] = retrieving[p];
+            target[p] = -1;
+            previous[p] = -1;
+            count[p] = 0;
+            if (!retrieving[p]) {
+                targetId[p] = -1;
+                continue;
+            }
+            if (targetId[p] >= 0) {
+                previous[p] = Math.max(-1, Arrays.binarySearch(ratIds, targetId[p]));
+            }
+            int base = p * (K + 1);
+            int m = ratIndex.nearest(piperPos[p], K, nearIdx, nearDist);
+            boolean hasPrevious = false;
+            for (int j = 0; j < m; ++j) {
+                candRat[base + j] = nearIdx[j];
+                candCost[base + j] = nearDist[j];
+                if (nearIdx[j] == previous[p]) {
+                    candCost[base + j] -= STICKINESS;
+                    hasPrevious = true;
+                }
+            }
+            if (previous[p] >= 0 && !hasPrevious) {
+                candRat[base + m] = previous[p];
+                candCost[base + m] = cost(p, previous[p], piperPos, ratIndex);
+                ++m;
+            }
+            count[p] = m;
+            for (int j = 0; j < m; ++j) {
+                // costs are above -STICKINESS and the bits of a positive float
+                // order as the float does
+                long bits = Float.floatToIntBits((float) (candCost[base + j] + STICKINESS));
+                pairs[slots++] = bits << 32 | (base + j);
+            }
+        }
+
+        // cheapest pairs first, ties by piper & nearness
+        Arrays.sort(pairs, 0, slots);
+        refine(slots);
+        for (int i = 0; i < slots; ++i) {
+            int s = (int) pairs[i];
+            int p = s / (K + 1);
+            int r = candRat[s];
+            if (target[p] < 0 && load[r] < depth) {
+                target[p] = r;
+                ++load[r];
+            }
+        }
+
+        // pipers whose candidates are all held take the closest free rat,
+        // or their nearest rat if every rat is held
+        for (int p = 0; p < pipers; ++p) {
+            if (!retrieving[p] || target[p] >= 0 || n == 0 || (fixed != null && fixed[p])) {
+                continue;
+            }
+            double best = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < n; ++r) {
+                double c = cost(p, r, piperPos, ratIndex);
+                if (load[r] < depth && c < best) {
+                    best = c;
+                    target[p] = r;
+                }
+            }
+            if (target[p] < 0) {
+                target[p] = candRat[p * (K + 1)];
+            }
+            ++load[target[p]];
+        }
+
+        // swap targets while that shortens the total (the loads stay the same),
+        // a pair of pipers that did not change since it was tried cannot gain
+        Arrays.fill(changed, true);
+        for (int pass = 0; pass < pipers; ++pass) {
+            boolean improved = false;
+            Arrays.fill(swapped, false);
+            for (int a = 0; a < pipers; ++a) {
+                if (!changed[a] || !movable(a, fixed)) {
+                    continue;
+                }
+                for (int b = 0; b < pipers; ++b) {
+                    // pairs of changed pipers are tried from the lower one
+                    if (b == a || (changed[b] && b < a) || !movable(b, fixed) || target[a] == target[b]) {
+                        continue;
+                    }
+                    double now = cost(a, target[a], piperPos, ratIndex) + cost(b, target[b], piperPos, ratIndex);
+                    double then = cost(a, target[b], piperPos, ratIndex) + cost(b, target[a], piperPos, ratIndex);
+                    if (then < now - 1e-9) {
+                        int t = target[a];
+                        target[a] = target[b];
+                        target[b] = t;
+                        swapped[a] = swapped[b] = true;
+                        improved = true;
+                    }
+                }
+            }
+            if (!improved) {
+                break;
+            }
+            System.arraycopy(swapped, 0, changed, 0, pipers);
+        }
+
+        for (int p = 0; p < pipers; ++p) {
+            if (retrieving[p] && (fixed == null || !fixed[p])) {
+                targetId[p] = target[p] >= 0 ? ratIds[target[p]] : -1;
+            }
+        }
+    }
+
+    private double cost(int p, int r, Point[] piperPos, RatIndex ratIndex) {
+        double d = RatIndex.distance(piperPos[p], ratIndex.x(r), ratIndex.y(r));
+        return r == previous[p] ? d - STICKINESS : d;
+    }
+
+    private boolean movable(int p, boolean[] fixed) {
+        return target[p] >= 0 && (fixed == null || !fixed[p]);
+    }
+
+    // order runs of pairs whose costs round to the same float by exact cost,
+    // then slot (rounding never reverses two costs, it only makes them equal)
+    private void refine(int slots) {
+        int start = 0;
+        for (int i = 1; i <= slots; ++i) {
+            if (i < slots && pairs[i] >>> 32 == pairs[start] >>> 32) {
+                continue;
+            }
+            for (int j = start + 1; j < i; ++j) {
+                long pair = pairs[j];
+                int k = j;
+                while (k > start && before((int) pair, (int) pairs[k - 1])) {
+                    pairs[k] = pairs[k - 1];
+                    --k;
+                }
+                pairs[k] = pair;
+            }
+            start = i;
+        }
+    }
+
+    private boolean before(int s, int t) {
+        if (candCost[s] != candCost[t]) {
+            return candCost[s] < candCost[t];
+        }
+        return s < t;
+    }
+}
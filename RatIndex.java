@@ -0,0 +1,282 @@
+package pppp.g7;
+
+import pppp.sim.Point;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the rats of one tick for radius queries.
+ * <p>
+ * Filled once per tick in the transformed frame and shared by all states,
+ * so a query only scans the cells overlapping its radius. The player adds
+ * each rat while transforming it and then calls {@link #build()}; the
+ * buffers are kept between ticks, so rebuilding allocates nothing once
+ * they have grown to the number of rats. Coordinates are stored in cell
+ * order next to the rat indices, so queries read no {@link Point}s.
+ * Results match {@link Util#fillIndicesWithinDistance} on the same rats.
+ * <p>
+ * The index also holds the positions of the rats of the tick, a
+ * {@link Point} is only made for the rats asked for by {@link #point}.
+ */
+public class RatIndex {
+    // smallest cell side (the range of a tune)
+    private static final double MIN_CELL = 10.0;
+
+    private double cell;
+    private double minX, minY;
+    private int cols, rows;
+    private int n;
+    // coordinates & cells of the rats by rat index
+    private double[] x = new double[0], y = new double[0];
+    private int[] cellOf = new int[0];
+    // points made for the rats of this tick (null until asked for)
+    private Point[] points = new Point[0];
+    // rat indices & coordinates grouped by cell, cell c holds order[start[c]] to order[start[c + 1] - 1]
+    private int[] start = new int[1];
+    private int[] order = new int[0];
+    private double[] cellX = new double[0], cellY = new double[0];
+
+    /**
+     * Starts a new tick of at most n rats on a board of the given side.
+     */
+    public void clear(int side, int n) {
+        // about one rat per cell, but no cells smaller than a tune range
+        this.cell = Math.max(MIN_CELL, side / Math.sqrt(Math.max(n, 1)));
+        this.minX = this.minY = -side / 2.0;
+        this.cols = this.rows = (int) (side / cell) + 1;
+        Arrays.fill(points, 0, this.n, null);
+        this.n = 0;
+        if (start.length < cols * rows + 1) {
+            start = new int[cols * rows + 1];
+        } else {
+            Arrays.fill(start, 0, cols * rows + 1, 0);
+        }
+        if (x.length < n) {
+            x = new double[n];
+            y = new double[n];
+            cellOf = new int[n];
+            points = new Point[n];
+            order = new int[n];
+            cellX = new double[n];
+            cellY = new double[n];
+        }
+    }
+
+    /**
+     * Adds the next rat (rats are numbered in the order they are added).
+     */
+    public void add(double rx, double ry) {
+        x[n] = rx;
+        y[n] = ry;
+        cellOf[n] = row(ry) * cols + column(rx);
+        ++start[cellOf[n] + 1];
+        ++n;
+    }
+
+    /**
+     * Groups the rats added since {@link #clear} by cell.
+     */
+    public void build() {
+        // counting sort of the rats by cell (indices stay ascending in a cell)
+        for (int c = 0; c < cols * rows; ++c) {
+            start[c + 1] += start[c];
+        }
+        for (int i = 0; i < n; ++i) {
+            int j = start[cellOf[i]]++;
+            order[j] = i;
+            cellX[j] = x[i];
+            cellY[j] = y[i];
+        }
+        // the scatter moved every start to the start of the next cell
+        for (int c = cols * rows; c > 0; --c) {
+            start[c] = start[c - 1];
+        }
+        start[0] = 0;
+    }
+
+    /**
+     * @return number of rats of this tick
+     */
+    public int size() {
+        return n;
+    }
+
+    public double x(int r) {
+        return x[r];
+    }
+
+    public double y(int r) {
+        return y[r];
+    }
+
+    /**
+     * @return position of a rat (the same point for the rest of the tick)
+     */
+    public Point point(int r) {
+        if (points[r] == null) {
+            points[r] = new Point(x[r], y[r]);
+        }
+        return points[r];
+    }
+
+    private int column(double px) {
+        return Math.min(cols - 1, Math.max(0, (int) ((px - minX) / cell)));
+    }
+
+    private int row(double py) {
+        return Math.min(rows - 1, Math.max(0, (int) ((py - minY) / cell)));
+    }
+
+    // same arithmetic as pos.distance(new Point(px, py))
+    static double distance(Point pos, double px, double py) {
+        double dx = px - pos.x;
+        double dy = py - pos.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Counts rats within a given distance
+     *
+     * @param pos      the position to compute from
+     * @param distance the maximum distance (exclusive)
+     * @return number of rats within distance
+     */
+    public int countWithinDistance(Point pos, double distance) {
+        int c0 = column(pos.x - distance), c1 = column(pos.x + distance);
+        int r0 = row(pos.y - distance), r1 = row(pos.y + distance);
+        int k = 0;
+        for (int r = r0; r <= r1; ++r) {
+            for (int j = start[r * cols + c0]; j < start[r * cols + c1 + 1]; ++j) {
+                if (distance(pos, cellX[j], cellY[j]) < distance) {
+                    ++k;
+                }
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Checks for a rat within a given distance, stopping at the first one
+     *
+     * @param pos      the position to compute from
+     * @param distance the maximum distance (exclusive)
+     * @return whether any rat is within distance
+     */
+    public boolean anyWithinDistance(Point pos, double distance) {
+        int c0 = column(pos.x - distance), c1 = column(pos.x + distance);
+        int r0 = row(pos.y - distance), r1 = row(pos.y + distance);
+        for (int r = r0; r <= r1; ++r) {
+            for (int j = start[r * cols + c0]; j < start[r * cols + c1 + 1]; ++j) {
+                if (distance(pos, cellX[j], cellY[j]) < distance) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds indices of rats within a given distance
+     *
+     * @param pos      the position to compute from
+     * @param distance the maximum distance (exclusive)
+     * @param out      buffer for the indices, with room for every rat
+     * @return number of indices written to out, which are ascending
+     */
+    public int fillIndicesWithinDistance(Point pos, double distance, int[] out) {
+        int c0 = column(pos.x - distance), c1 = column(pos.x + distance);
+        int r0 = row(pos.y - distance), r1 = row(pos.y + distance);
+        int k = 0;
+        // a query over most of the grid is cheaper as a scan (already in order)
+        if ((c1 - c0 + 1) * (r1 - r0 + 1) * 2 > cols * rows) {
+            for (int i = 0; i < n; ++i) {
+                if (distance(pos, x[i], y[i]) < distance) {
+                    out[k++] = i;
+                }
+            }
+            return k;
+        }
+        for (int r = r0; r <= r1; ++r) {
+            for (int j = start[r * cols + c0]; j < start[r * cols + c1 + 1]; ++j) {
+                if (distance(pos, cellX[j], cellY[j]) < distance) {
+                    out[k++] = order[j];
+                }
+            }
+        }
+        Arrays.sort(out, 0, k);
+        return k;
+    }
+
+    /**
+     * Finds the k rats nearest to a position
+     *
+     * @param pos  the position to compute from
+     * @param k    the number of rats to find
+     * @param idx  buffer for the indices of at least k entries
+     * @param dist buffer for the distances of at least k entries
+     * @return number of rats found (k unless there are fewer rats), nearest
+     * first and by index among equal distances
+     */
+    public int nearest(Point pos, int k, int[] idx, double[] dist) {
+        int cx = column(pos.x), cy = row(pos.y);
+        int m = 0;
+        // rings of cells around the cell of pos until no closer rat can be left
+        for (int d = 0; ; ++d) {
+            int c0 = cx - d, c1 = cx + d, r0 = cy - d, r1 = cy + d;
+            for (int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); ++r) {
+                if (r == r0 || r == r1) {
+                    m = nearest(pos, r, Math.max(c0, 0), Math.min(c1, cols - 1), m, k, idx, dist);
+                } else {
+                    if (c0 >= 0) {
+                        m = nearest(pos, r, c0, c0, m, k, idx, dist);
+                    }
+                    if (c1 < cols) {
+                        m = nearest(pos, r, c1, c1, m, k, idx, dist);
+                    }
+                }
+            }
+            if (c0 <= 0 && r0 <= 0 && c1 >= cols - 1 && r1 >= rows - 1) {
+                return m;
+            }
+            if (m == k) {
+                // distance to the cells outside the rings
+                double bound = Double.POSITIVE_INFINITY;
+                if (c0 > 0) {
+                    bound = Math.min(bound, pos.x - (minX + c0 * cell));
+                }
+                if (c1 < cols - 1) {
+                    bound = Math.min(bound, minX + (c1 + 1) * cell - pos.x);
+                }
+                if (r0 > 0) {
+                    bound = Math.min(bound, pos.y - (minY + r0 * cell));
+                }
+                if (r1 < rows - 1) {
+                    bound = Math.min(bound, minY + (r1 + 1) * cell - pos.y);
+                }
+                if (dist[k - 1] < bound) {
+                    return m;
+                }
+            }
+        }
+    }
+
+    // offers the rats of cells c0 to c1 of a row to the m nearest so far
+    private int nearest(Point pos, int r, int c0, int c1, int m, int k, int[] idx, double[] dist) {
+        for (int j = start[r * cols + c0]; j < start[r * cols + c1 + 1]; ++j) {
+            double dj = distance(pos, cellX[j], cellY[j]);
+            int i = order[j];
+            if (m == k && (dj > dist[k - 1] || (dj == dist[k - 1] && i > idx[k - 1]))) {
+                continue;
+            }
+            int q = m < k ? m++ : k - 1;
+            while (q > 0 && (dist[q - 1] > dj || (dist[q - 1] == dj && idx[q - 1] > i))) {
+                dist[q] = dist[q - 1];
+                idx[q] = idx[q - 1];
+                --q;
+            }
+            dist[q] = dj;
+            idx[q] = i;
+        }
+        return m;
+    }
+}
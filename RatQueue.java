@@ -0,0 +1,65 @@
+package pppp.sim;
+
+// min-heap of rats keyed by the turn they must be stepped again
+// (entries are packed as turn << 32 | rat id, ties resolve by id)
+class RatQueue {
+
+	private long[] heap;
+	private int size = 0;
+
+	RatQueue(int capacity)
+	{
+		heap = new long [Math.max(capacity, 1)];
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	void push(long turn, int id)
+	{
+		if (size == heap.length)
+			heap = java.util.Arrays.copyOf(heap, size * 2);
+		long e = (turn << 32) | (id & 0xffffffffL);
+		// sift up
+		int i = size++;
+		while (i != 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= e) break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = e;
+	}
+
+	// turn of the first rat
+	long turn()
+	{
+		return heap[0] >>> 32;
+	}
+
+	// remove the first rat and return its id
+	int pop()
+	{
+		long top = heap[0];
+		long e = heap[--size];
+		// sift down
+		int i = 0;
+		for (;;) {
+			int c = i * 2 + 1;
+			if (c >= size) break;
+			if (c + 1 < size && heap[c + 1] < heap[c]) c++;
+			if (heap[c] >= e) break;
+			heap[i] = heap[c];
+			i = c;
+		}
+		heap[i] = e;
+		return (int) top;
+	}
+}
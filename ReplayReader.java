@@ -0,0 +1,249 @@
+package pppp.sim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// random access to a replay written by ReplayRecorder
+// (seek finds the keyframe from the index and applies at most
+//  the deltas of one keyframe interval, no physics is recomputed)
+public class ReplayReader implements Closeable {
+
+	// size of each mapped window of the file
+	private static final long WINDOW = 256L << 20;
+
+	private final FileChannel channel;
+	private ByteBuffer buf = null;
+	private long window = 0;
+
+	private final String[] groups = new String [4];
+	private final int side;
+	private final int n_pipers;
+
+	// offset & keyframe of every record
+	private final long[] offset;
+	private final int[] keyframe;
+
+	// decoded state & its record (-1 if none)
+	private final Frame frame;
+	private float[] rat_x;
+	private float[] rat_y;
+	private int current = -1;
+
+	public ReplayReader(File file) throws IOException
+	{
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		long size = channel.size();
+		ByteBuffer head = at(0, (int) Math.min(size, 256));
+		if (head.getInt() != ReplayRecorder.MAGIC ||
+		    head.getInt() != ReplayRecorder.VERSION)
+			throw new IOException("Not a replay: " + file);
+		side = head.getInt();
+		n_pipers = head.getInt();
+		int n_rats = head.getInt();
+		head.getInt();
+		for (int g = 0 ; g != 4 ; ++g) {
+			byte[] name = new byte [head.getShort()];
+			head.get(name);
+			groups[g] = new String(name, StandardCharsets.UTF_8);
+		}
+		ByteBuffer foot = at(size - 16, 16);
+		long index = foot.getLong();
+		int records = foot.getInt();
+		if (foot.getInt() != ReplayRecorder.MAGIC)
+			throw new IOException("Replay without index (not closed): " + file);
+		offset = new long [records];
+		keyframe = new int [records];
+		ByteBuffer entries = at(index, records * 12);
+		for (int i = 0 ; i != records ; ++i) {
+			offset[i] = entries.getLong();
+			keyframe[i] = entries.getInt();
+		}
+		frame = new Frame(n_pipers, n_rats);
+		rat_x = new float [n_rats];
+		rat_y = new float [n_rats];
+	}
+
+	// bytes of the file at an offset (remapped if outside the current window)
+	private ByteBuffer at(long pos, int bytes) throws IOException
+	{
+		if (buf == null || pos < window || pos + bytes > window + buf.limit()) {
+			long size = Math.min(Math.max(WINDOW, bytes), channel.size() - pos);
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+			window = pos;
+		}
+		ByteBuffer b = buf.duplicate();
+		b.position((int) (pos - window));
+		return b;
+	}
+
+	public int records()
+	{
+		return offset.length;
+	}
+
+	// decode the state of a record (turns are numbered from record 0)
+	public void seek(int record) throws IOException
+	{
+		if (record < 0 || record >= offset.length)
+			throw new IndexOutOfBoundsException("No record " + record);
+		int from = keyframe[record];
+		// continue from the current record if it is on the way
+		if (current >= from && current <= record) from = current + 1;
+		for (int i = from ; i <= record ; ++i)
+			decode(i);
+		current = record;
+	}
+
+	private void decode(int record) throws IOException
+	{
+		ByteBuffer b = at(offset[record], 4);
+		b = at(offset[record], b.getInt());
+		b.getInt();
+		boolean delta = b.get() == 1;
+		Frame f = frame;
+		f.turn = b.getLong();
+		for (int g = 0 ; g != 4 ; ++g)
+			f.score[g] = b.getInt();
+		for (int g = 0 ; g != 4 ; ++g) {
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				f.piper_x[g][p] = b.getFloat();
+				f.piper_y[g][p] = b.getFloat();
+			}
+			int bits = 0;
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				if ((p & 7) == 0) bits = b.get();
+				f.piper_play[g][p] = (bits & (1 << (p & 7))) != 0;
+			}
+		}
+		int n = b.getInt();
+		if (!delta)
+			for (int r = 0 ; r != n ; ++r) {
+				f.rat_id[r] = b.getInt();
+				rat_x[r] = b.getFloat();
+				rat_y[r] = b.getFloat();
+				f.rat_tune[r] = b.get();
+			}
+		else {
+			// skip removed rats (ids are in the same order)
+			int k = b.getInt();
+			int pos = b.position();
+			b.position(pos + k * 4);
+			int next = k == 0 ? -1 : b.getInt(pos);
+			int i = 0;
+			for (int c = 0, r = 0 ; c != f.rat_count ; ++c) {
+				if (f.rat_id[c] == next) {
+					next = ++i == k ? -1 : b.getInt(pos + i * 4);
+					continue;
+				}
+				f.rat_id[r] = f.rat_id[c];
+				rat_x[r] = rat_x[c] + b.getShort() * ReplayRecorder.DELTA;
+				rat_y[r] = rat_y[c] + b.getShort() * ReplayRecorder.DELTA;
+				f.rat_tune[r] = b.get();
+				r++;
+			}
+		}
+		f.rat_count = n;
+		for (int r = 0 ; r != n ; ++r) {
+			f.rat_x[r] = rat_x[r];
+			f.rat_y[r] = rat_y[r];
+		}
+	}
+
+	// state of the last record sought
+	public String group(int g)
+	{
+		return groups[g];
+	}
+
+	public int side()
+	{
+		return side;
+	}
+
+	public int pipers()
+	{
+		return n_pipers;
+	}
+
+	public long turn()
+	{
+		return frame.turn;
+	}
+
+	public int score(int g)
+	{
+		return frame.score[g];
+	}
+
+	public double piper_x(int g, int p)
+	{
+		return frame.piper_x[g][p];
+	}
+
+	public double piper_y(int g, int p)
+	{
+		return frame.piper_y[g][p];
+	}
+
+	public boolean piper_play(int g, int p)
+	{
+		return frame.piper_play[g][p];
+	}
+
+	public int rats()
+	{
+		return frame.rat_count;
+	}
+
+	public int rat_id(int r)
+	{
+		return frame.rat_id[r];
+	}
+
+	public double rat_x(int r)
+	{
+		return frame.rat_x[r];
+	}
+
+	public double rat_y(int r)
+	{
+		return frame.rat_y[r];
+	}
+
+	public int rat_tune(int r)
+	{
+		return frame.rat_tune[r];
+	}
+
+	public void close() throws IOException
+	{
+		buf = null;
+		channel.close();
+	}
+
+	// print turn, scores & free rats of every record (or of one record)
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0) {
+			System.err.println("Usage: ReplayReader <file> [record]");
+			System.exit(1);
+		}
+		try (ReplayReader replay = new ReplayReader(new File(args[0]))) {
+			int from = 0;
+			int to = replay.records();
+			if (args.length > 1) {
+				from = Integer.parseInt(args[1]);
+				to = from + 1;
+			}
+			for (int i = from ; i != to ; ++i) {
+				replay.seek(i);
+				System.out.println(replay.turn() + ", " + replay.score(0) + ", "
+				                   + replay.score(1) + ", " + replay.score(2) + ", "
+				                   + replay.score(3) + ", " + replay.rats());
+			}
+		}
+	}
+}
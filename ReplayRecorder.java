@@ -0,0 +1,199 @@
+package pppp.sim;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// replay of a game written through a memory mapped buffer
+//
+// file layout (big endian):
+//   header: magic, version, side, pipers per group, rats, keyframe interval,
+//           group names (short length & UTF-8)
+//   one record per turn: length (int, whole record), type (0 keyframe,
+//           1 delta), turn (long), scores (4 int), pipers x, y (float),
+//           play bits per group (8 pipers per byte), rat count (int)
+//     keyframe rats: id (int), x, y (float), tune (byte)
+//     delta rats: removed count (int) & removed ids (int), then for every
+//           remaining rat in the same order dx, dy (short, multiples of
+//           DELTA) & tune (byte)
+//   index: offset (long) & keyframe record (int) of every record
+//   footer: index offset (long), records (int), magic
+//
+// deltas are taken against the positions as decoded from the file
+// (closed loop) so rounding errors do not accumulate
+class ReplayRecorder implements Closeable {
+
+	static final int MAGIC = 0x50505250;  // "PPRP"
+	static final int VERSION = 1;
+
+	// position step of delta records
+	static final float DELTA = 1.0f / 131072.0f;
+
+	// size of each mapped window of the file
+	private static final long WINDOW = 64L << 20;
+
+	private final FileChannel channel;
+	private MappedByteBuffer buf = null;
+	private long window = 0;
+
+	private final int n_pipers;
+	private final int keyframes;
+
+	// offset & keyframe of every record
+	private long[] offset = new long [1024];
+	private int[] keyframe = new int [1024];
+	private int records = 0;
+	private int last_keyframe = 0;
+
+	// rats as decoded from the last record
+	private int rat_count = 0;
+	private int[] rat_id;
+	private float[] rat_x;
+	private float[] rat_y;
+	private int[] removed;
+
+	ReplayRecorder(File file, String[] groups, int side, int n_pipers,
+	               int n_rats, int keyframes) throws IOException
+	{
+		if (keyframes < 1)
+			throw new IllegalArgumentException("Invalid keyframe interval");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+		                           StandardOpenOption.READ, StandardOpenOption.WRITE,
+		                           StandardOpenOption.TRUNCATE_EXISTING);
+		this.n_pipers = n_pipers;
+		this.keyframes = keyframes;
+		rat_id = new int [n_rats];
+		rat_x = new float [n_rats];
+		rat_y = new float [n_rats];
+		removed = new int [n_rats];
+		reserve(256);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(side);
+		buf.putInt(n_pipers).putInt(n_rats).putInt(keyframes);
+		for (int g = 0 ; g != 4 ; ++g) {
+			byte[] name = groups[g].getBytes(StandardCharsets.UTF_8);
+			buf.putShort((short) name.length).put(name);
+		}
+	}
+
+	// current position in the file
+	private long position()
+	{
+		return window + buf.position();
+	}
+
+	// map a new window if the next bytes do not fit in the current one
+	private void reserve(int bytes) throws IOException
+	{
+		if (buf != null && buf.remaining() >= bytes) return;
+		long pos = buf == null ? 0 : position();
+		buf = channel.map(FileChannel.MapMode.READ_WRITE, pos, Math.max(WINDOW, bytes));
+		window = pos;
+	}
+
+	// append the state of a turn
+	void record(Frame f) throws IOException
+	{
+		int n = f.rat_count;
+		boolean delta = records != 0 && records - last_keyframe < keyframes
+		                && fits_delta(f);
+		int bound = 64 + 4 * (n_pipers * 8 + n_pipers / 8 + 1)
+		          + (delta ? (rat_count - n) * 4 + n * 5 : n * 13);
+		reserve(bound);
+		long start = position();
+		if (records == offset.length) {
+			offset = Arrays.copyOf(offset, records * 2);
+			keyframe = Arrays.copyOf(keyframe, records * 2);
+		}
+		if (!delta) last_keyframe = records;
+		offset[records] = start;
+		keyframe[records++] = last_keyframe;
+		int begin = buf.position();
+		buf.putInt(0);
+		buf.put((byte) (delta ? 1 : 0));
+		buf.putLong(f.turn);
+		for (int g = 0 ; g != 4 ; ++g)
+			buf.putInt(f.score[g]);
+		for (int g = 0 ; g != 4 ; ++g) {
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				buf.putFloat((float) f.piper_x[g][p]);
+				buf.putFloat((float) f.piper_y[g][p]);
+			}
+			int bits = 0;
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				if (f.piper_play[g][p]) bits |= 1 << (p & 7);
+				if ((p & 7) == 7 || p + 1 == n_pipers) {
+					buf.put((byte) bits);
+					bits = 0;
+				}
+			}
+		}
+		buf.putInt(n);
+		if (!delta)
+			for (int r = 0 ; r != n ; ++r) {
+				rat_id[r] = f.rat_id[r];
+				rat_x[r] = (float) f.rat_x[r];
+				rat_y[r] = (float) f.rat_y[r];
+				buf.putInt(rat_id[r]);
+				buf.putFloat(rat_x[r]);
+				buf.putFloat(rat_y[r]);
+				buf.put((byte) f.rat_tune[r]);
+			}
+		else {
+			// removed rats
+			int k = 0;
+			for (int b = 0, r = 0 ; b != rat_count ; ++b)
+				if (r != n && f.rat_id[r] == rat_id[b]) r++;
+				else removed[k++] = rat_id[b];
+			buf.putInt(k);
+			for (int i = 0 ; i != k ; ++i)
+				buf.putInt(removed[i]);
+			// moved rats (against the decoded positions)
+			for (int b = 0, r = 0 ; r != n ; ++b) {
+				if (f.rat_id[r] != rat_id[b]) continue;
+				short dx = (short) Math.round((f.rat_x[r] - rat_x[b]) / DELTA);
+				short dy = (short) Math.round((f.rat_y[r] - rat_y[b]) / DELTA);
+				rat_id[r] = rat_id[b];
+				rat_x[r] = rat_x[b] + dx * DELTA;
+				rat_y[r] = rat_y[b] + dy * DELTA;
+				buf.putShort(dx);
+				buf.putShort(dy);
+				buf.put((byte) f.rat_tune[r]);
+				r++;
+			}
+		}
+		rat_count = n;
+		buf.putInt(begin, buf.position() - begin);
+	}
+
+	// rats are a subset of the previous ones & moved less than a delta step range
+	private boolean fits_delta(Frame f)
+	{
+		double limit = Short.MAX_VALUE * (double) DELTA;
+		int r = 0;
+		for (int b = 0 ; b != rat_count && r != f.rat_count ; ++b) {
+			if (f.rat_id[r] != rat_id[b]) continue;
+			if (Math.abs(f.rat_x[r] - rat_x[b]) >= limit ||
+			    Math.abs(f.rat_y[r] - rat_y[b]) >= limit) return false;
+			r++;
+		}
+		return r == f.rat_count;
+	}
+
+	// write the record index and cut the file to its size
+	public void close() throws IOException
+	{
+		reserve(records * 12 + 16);
+		long index = position();
+		for (int i = 0 ; i != records ; ++i)
+			buf.putLong(offset[i]).putInt(keyframe[i]);
+		buf.putLong(index).putInt(records).putInt(MAGIC);
+		long size = position();
+		buf.force();
+		buf = null;
+		channel.truncate(size);
+		channel.close();
+	}
+}
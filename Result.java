@@ -0,0 +1,61 @@
+package pppp.sim;
+
+// outcome of a single game
+public class Result {
+
+	public final Game game;
+
+	// scores in north, east, south, west order (null if the game failed)
+	public final int[] score;
+
+	// turns played and wall clock time of the game
+	public final long turns;
+	public final long nanos;
+
+	// reason of failure (null if the game completed)
+	public final String error;
+
+	public Result(Game game, int[] score, long turns, long nanos, String error)
+	{
+		this.game = game;
+		this.score = score == null ? null : score.clone();
+		this.turns = turns;
+		this.nanos = nanos;
+		this.error = error;
+	}
+
+	public boolean failed()
+	{
+		return error != null;
+	}
+
+	// seat with the highest score (first one on ties)
+	public int winner()
+	{
+		int winner = 0;
+		for (int g = 1 ; g != score.length ; ++g)
+			if (score[g] > score[winner]) winner = g;
+		return winner;
+	}
+
+	public int total()
+	{
+		int total = 0;
+		for (int s : score) total += s;
+		return total;
+	}
+
+	// format: side,rats,pipers,N,E,S,W,scoreN,scoreE,scoreS,scoreW,winner,total score
+	public String csv()
+	{
+		StringBuilder res = new StringBuilder();
+		res.append(game.side + "," + game.rats + "," + game.pipers);
+		for (int g = 0 ; g != 4 ; ++g)
+			res.append("," + game.groups[g]);
+		for (int g = 0 ; g != 4 ; ++g)
+			res.append("," + score[g]);
+		res.append("," + game.groups[winner()]);
+		res.append("," + total());
+		return res.toString();
+	}
+}
@@ -0,0 +1,100 @@
+package pppp.sim;
+
+import java.util.*;
+
+// score statistics of each group per (side, rats, pipers) configuration
+public class ResultStats {
+
+	// running mean and variance (Welford) of one group in one configuration
+	public static class Entry {
+
+		public final int side;
+		public final int rats;
+		public final int pipers;
+		public final String group;
+
+		public long n = 0;
+		public double mean = 0.0;
+		private double m2 = 0.0;
+
+		Entry(int side, int rats, int pipers, String group)
+		{
+			this.side = side;
+			this.rats = rats;
+			this.pipers = pipers;
+			this.group = group;
+		}
+
+		void add(double x)
+		{
+			n++;
+			double d = x - mean;
+			mean += d / n;
+			m2 += d * (x - mean);
+		}
+
+		// sample variance
+		public double variance()
+		{
+			return n < 2 ? 0.0 : m2 / (n - 1);
+		}
+
+		// half width of the 95% confidence interval of the mean
+		public double ci95()
+		{
+			return n < 2 ? Double.POSITIVE_INFINITY
+			             : t975(n - 1) * Math.sqrt(variance() / n);
+		}
+	}
+
+	// two sided 95% quantiles of Student's t for 1 to 30 degrees of freedom
+	private static final double[] T975 = {
+		12.7062, 4.3027, 3.1824, 2.7764, 2.5706, 2.4469, 2.3646, 2.3060,
+		2.2622, 2.2281, 2.2010, 2.1788, 2.1604, 2.1448, 2.1314, 2.1199,
+		2.1098, 2.1009, 2.0930, 2.0860, 2.0796, 2.0739, 2.0687, 2.0639,
+		2.0595, 2.0555, 2.0518, 2.0484, 2.0452, 2.0423
+	};
+
+	// two sided 95% quantile of Student's t (expansion around the normal
+	// quantile past the table, good to 4 digits)
+	public static double t975(long df)
+	{
+		if (df <= T975.length) return T975[(int) df - 1];
+		double z = 1.959964;
+		double v = df;
+		double z3 = z * z * z;
+		double z5 = z3 * z * z;
+		double z7 = z5 * z * z;
+		return z + (z3 + z) / (4 * v)
+		         + (5 * z5 + 16 * z3 + 3 * z) / (96 * v * v)
+		         + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * v * v * v);
+	}
+
+	private final Map <String, Entry> entries = new TreeMap <String, Entry> ();
+
+	public void add(int side, int rats, int pipers, String group, int score)
+	{
+		String key = String.format("%08d %08d %08d %s", side, rats, pipers, group);
+		Entry e = entries.get(key);
+		if (e == null)
+			entries.put(key, e = new Entry(side, rats, pipers, group));
+		e.add(score);
+	}
+
+	// entries ordered by side, rats, pipers and group
+	public Collection <Entry> entries()
+	{
+		return entries.values();
+	}
+
+	public String table()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("side,rats,pipers,group,games,mean,variance,ci95\n");
+		for (Entry e : entries.values())
+			buf.append(e.side + "," + e.rats + "," + e.pipers + "," + e.group
+			           + "," + e.n + "," + String.format("%.4f,%.4f,%.4f",
+			           e.mean, e.variance(), e.ci95()) + "\n");
+		return buf.toString();
+	}
+}
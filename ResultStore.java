@@ -0,0 +1,457 @@
+package pppp.sim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+// game results batched in memory and written as columnar binary segments
+//
+// directory layout:
+//   index.bin        one fixed size entry per segment (appended under a file lock)
+//   seg-NNNNNN.bin   columns of one batch of results
+//   open.bin         row count & rows of single results not yet in a segment
+//                    (processes playing one game append here under the lock)
+//
+// segment layout (big endian):
+//   magic, version, count, dictionary size, dictionary strings (UTF-8),
+//   then one column per field: side, rats, pipers (int), turns, seed (long),
+//   group N/E/S/W (dictionary id), score N/E/S/W (int, -1 if failed),
+//   played turns, nanos (long), error (dictionary id, -1 if none)
+public class ResultStore implements Closeable {
+
+	private static final int MAGIC = 0x50505253;  // "PPRS"
+	private static final int VERSION = 1;
+
+	// index entry: segment, count, min & max of side, rats, pipers
+	private static final int ENTRY = 32;
+
+	private static final String OPEN = "open.bin";
+
+	// stores of one directory in a JVM share a monitor, a second file lock
+	// from the same JVM would throw OverlappingFileLockException
+	private static final Map <String, Object> dir_locks = new HashMap <String, Object> ();
+
+	private final File dir;
+	private final Object dir_lock;
+	private final int batch;
+	private final List <Result> pending = new ArrayList <Result> ();
+
+	public ResultStore(File dir, int batch) throws IOException
+	{
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create result directory " + dir);
+		this.dir = dir;
+		this.batch = batch;
+		String path = dir.getCanonicalPath();
+		synchronized (dir_locks) {
+			dir_locks.putIfAbsent(path, new Object());
+			dir_lock = dir_locks.get(path);
+		}
+	}
+
+	public ResultStore(File dir) throws IOException
+	{
+		this(dir, 4096);
+	}
+
+	// buffer a result, a segment is written once the batch is full
+	public synchronized void append(Result result) throws IOException
+	{
+		pending.add(result);
+		if (pending.size() >= batch)
+			flush();
+	}
+
+	// write buffered results as a new segment
+	public synchronized void flush() throws IOException
+	{
+		if (pending.isEmpty()) return;
+		synchronized (dir_lock) {
+			try (FileChannel index = open_index()) {
+				// the lock is released when the channel is closed
+				index.lock();
+				add_segment(index, pending);
+			}
+		}
+		pending.clear();
+	}
+
+	// add a result to the open segment right away (for a process that plays
+	// a single game), the rows become a segment once they fill a batch
+	public synchronized void log(Result result) throws IOException
+	{
+		synchronized (dir_lock) {
+			try (FileChannel index = open_index()) {
+				index.lock();
+				File file = new File(dir, OPEN);
+				List <Result> rows;
+				try (RandomAccessFile open = new RandomAccessFile(file, "rw")) {
+					int count = open.length() < 4 ? 0 : open.readInt();
+					open.seek(Math.max(open.length(), 4));
+					open.write(row(result));
+					open.seek(0);
+					open.writeInt(++count);
+					if (count < batch) return;
+					rows = read_rows(file);
+					add_segment(index, rows);
+					open.setLength(0);
+				}
+			}
+		}
+	}
+
+	private FileChannel open_index() throws IOException
+	{
+		return FileChannel.open(new File(dir, "index.bin").toPath(),
+		                        StandardOpenOption.CREATE, StandardOpenOption.READ,
+		                        StandardOpenOption.WRITE);
+	}
+
+	// write results as the next segment and index it (index is locked)
+	private void add_segment(FileChannel index, List <Result> results) throws IOException
+	{
+		int segment = (int) (index.size() / ENTRY);
+		write_segment(new File(dir, segment_name(segment)), results);
+		int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+		int[] max = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+		for (Result r : results) {
+			int[] key = {r.game.side, r.game.rats, r.game.pipers};
+			for (int k = 0 ; k != 3 ; ++k) {
+				min[k] = Math.min(min[k], key[k]);
+				max[k] = Math.max(max[k], key[k]);
+			}
+		}
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+		entry.putInt(segment).putInt(results.size());
+		for (int k = 0 ; k != 3 ; ++k)
+			entry.putInt(min[k]).putInt(max[k]);
+		entry.flip();
+		index.write(entry, index.size());
+	}
+
+	// row of the open segment: game, scores (-1 if failed), played turns,
+	// nanos & error (strings are length & UTF-8, length -1 if null)
+	private static byte[] row(Result r) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(r.game.side);
+		out.writeInt(r.game.rats);
+		out.writeInt(r.game.pipers);
+		out.writeLong(r.game.turns);
+		out.writeLong(r.game.seed);
+		for (int g = 0 ; g != 4 ; ++g)
+			write_string(out, r.game.groups[g]);
+		for (int g = 0 ; g != 4 ; ++g)
+			out.writeInt(r.failed() ? -1 : r.score[g]);
+		out.writeLong(r.turns);
+		out.writeLong(r.nanos);
+		write_string(out, r.error);
+		return bytes.toByteArray();
+	}
+
+	private static void write_string(DataOutputStream out, String s) throws IOException
+	{
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(utf.length);
+		out.write(utf);
+	}
+
+	private static String read_string(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] utf = new byte [length];
+		in.readFully(utf);
+		return new String(utf, StandardCharsets.UTF_8);
+	}
+
+	// rows of the open segment (none if there is no open segment)
+	private static List <Result> read_rows(File file) throws IOException
+	{
+		List <Result> rows = new ArrayList <Result> ();
+		if (!file.exists()) return rows;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+		                          new FileInputStream(file), 1 << 16))) {
+			if (file.length() < 4) return rows;
+			int count = in.readInt();
+			for (int i = 0 ; i != count ; ++i) {
+				int side = in.readInt();
+				int rats = in.readInt();
+				int pipers = in.readInt();
+				long turns = in.readLong();
+				long seed = in.readLong();
+				String[] groups = new String [4];
+				for (int g = 0 ; g != 4 ; ++g)
+					groups[g] = read_string(in);
+				int[] score = new int [4];
+				for (int g = 0 ; g != 4 ; ++g)
+					score[g] = in.readInt();
+				long played = in.readLong();
+				long nanos = in.readLong();
+				String error = read_string(in);
+				rows.add(new Result(new Game(groups, side, rats, pipers, turns, seed),
+				                    error == null ? score : null, played, nanos, error));
+			}
+		}
+		return rows;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		flush();
+	}
+
+	private static String segment_name(int segment)
+	{
+		return String.format("seg-%06d.bin", segment);
+	}
+
+	private static void write_segment(File file, List <Result> results)
+	                                  throws IOException
+	{
+		// dictionary of group names and errors
+		Map <String, Integer> dict = new LinkedHashMap <String, Integer> ();
+		for (Result r : results) {
+			for (String group : r.game.groups)
+				dict.putIfAbsent(group, dict.size());
+			if (r.error != null)
+				dict.putIfAbsent(r.error, dict.size());
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		                            new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(results.size());
+			out.writeInt(dict.size());
+			for (String s : dict.keySet()) {
+				byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(utf.length);
+				out.write(utf);
+			}
+			for (Result r : results) out.writeInt(r.game.side);
+			for (Result r : results) out.writeInt(r.game.rats);
+			for (Result r : results) out.writeInt(r.game.pipers);
+			for (Result r : results) out.writeLong(r.game.turns);
+			for (Result r : results) out.writeLong(r.game.seed);
+			for (int g = 0 ; g != 4 ; ++g)
+				for (Result r : results) out.writeInt(dict.get(r.game.groups[g]));
+			for (int g = 0 ; g != 4 ; ++g)
+				for (Result r : results) out.writeInt(r.failed() ? -1 : r.score[g]);
+			for (Result r : results) out.writeLong(r.turns);
+			for (Result r : results) out.writeLong(r.nanos);
+			for (Result r : results) out.writeInt(r.error == null ? -1 : dict.get(r.error));
+		}
+	}
+
+	// columns of one segment
+	public static class Segment {
+
+		public int count;
+		public String[] dict;
+		public int[] side;
+		public int[] rats;
+		public int[] pipers;
+		public long[] turns;
+		public long[] seed;
+		public int[][] group = new int [4][];
+		public int[][] score = new int [4][];
+		public long[] played;
+		public long[] nanos;
+		public int[] error;
+
+		// rebuild the result of a row
+		public Result result(int i)
+		{
+			String[] groups = new String [4];
+			for (int g = 0 ; g != 4 ; ++g)
+				groups[g] = dict[group[g][i]];
+			Game game = new Game(groups, side[i], rats[i], pipers[i], turns[i], seed[i]);
+			int[] s = null;
+			if (error[i] < 0)
+				s = new int[] {score[0][i], score[1][i], score[2][i], score[3][i]};
+			return new Result(game, s, played[i], nanos[i],
+			                  error[i] < 0 ? null : dict[error[i]]);
+		}
+	}
+
+	// columns of results in memory (the rows of the open segment)
+	private static Segment columns(List <Result> results)
+	{
+		Map <String, Integer> dict = new LinkedHashMap <String, Integer> ();
+		for (Result r : results) {
+			for (String group : r.game.groups)
+				dict.putIfAbsent(group, dict.size());
+			if (r.error != null)
+				dict.putIfAbsent(r.error, dict.size());
+		}
+		Segment s = new Segment();
+		int n = s.count = results.size();
+		s.dict = dict.keySet().toArray(new String [0]);
+		s.side = new int [n];
+		s.rats = new int [n];
+		s.pipers = new int [n];
+		s.turns = new long [n];
+		s.seed = new long [n];
+		for (int g = 0 ; g != 4 ; ++g) {
+			s.group[g] = new int [n];
+			s.score[g] = new int [n];
+		}
+		s.played = new long [n];
+		s.nanos = new long [n];
+		s.error = new int [n];
+		for (int i = 0 ; i != n ; ++i) {
+			Result r = results.get(i);
+			s.side[i] = r.game.side;
+			s.rats[i] = r.game.rats;
+			s.pipers[i] = r.game.pipers;
+			s.turns[i] = r.game.turns;
+			s.seed[i] = r.game.seed;
+			for (int g = 0 ; g != 4 ; ++g) {
+				s.group[g][i] = dict.get(r.game.groups[g]);
+				s.score[g][i] = r.failed() ? -1 : r.score[g];
+			}
+			s.played[i] = r.turns;
+			s.nanos[i] = r.nanos;
+			s.error[i] = r.error == null ? -1 : dict.get(r.error);
+		}
+		return s;
+	}
+
+	private static Segment read_segment(File file) throws IOException
+	{
+		ByteBuffer buf;
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+		}
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+			throw new IOException("Not a result segment: " + file);
+		Segment s = new Segment();
+		int n = s.count = buf.getInt();
+		s.dict = new String [buf.getInt()];
+		for (int i = 0 ; i != s.dict.length ; ++i) {
+			byte[] utf = new byte [buf.getInt()];
+			buf.get(utf);
+			s.dict[i] = new String(utf, StandardCharsets.UTF_8);
+		}
+		s.side = ints(buf, n);
+		s.rats = ints(buf, n);
+		s.pipers = ints(buf, n);
+		s.turns = longs(buf, n);
+		s.seed = longs(buf, n);
+		for (int g = 0 ; g != 4 ; ++g)
+			s.group[g] = ints(buf, n);
+		for (int g = 0 ; g != 4 ; ++g)
+			s.score[g] = ints(buf, n);
+		s.played = longs(buf, n);
+		s.nanos = longs(buf, n);
+		s.error = ints(buf, n);
+		return s;
+	}
+
+	private static int[] ints(ByteBuffer buf, int n)
+	{
+		int[] a = new int [n];
+		buf.asIntBuffer().get(a);
+		buf.position(buf.position() + n * 4);
+		return a;
+	}
+
+	private static long[] longs(ByteBuffer buf, int n)
+	{
+		long[] a = new long [n];
+		buf.asLongBuffer().get(a);
+		buf.position(buf.position() + n * 8);
+		return a;
+	}
+
+	// visit the segments that may hold the configuration and the matching
+	// rows of the open one (negative side, rats or pipers match anything)
+	public void scan(int side, int rats, int pipers, Consumer <Segment> visitor)
+	                 throws IOException
+	{
+		int[] key = {side, rats, pipers};
+		// read the open rows and the index under a shared lock, the
+		// segments are never written again once they are indexed
+		List <Result> rows = new ArrayList <Result> ();
+		ByteBuffer index;
+		synchronized (dir_lock) {
+			try (FileChannel in = open_index()) {
+				in.lock(0, Long.MAX_VALUE, true);
+				for (Result r : read_rows(new File(dir, OPEN)))
+					if (match(key, r.game.side, r.game.rats, r.game.pipers))
+						rows.add(r);
+				index = ByteBuffer.allocate((int) in.size());
+				while (index.hasRemaining())
+					if (in.read(index) < 0) break;
+				index.flip();
+			}
+		}
+		if (!rows.isEmpty())
+			visitor.accept(columns(rows));
+		while (index.remaining() >= ENTRY) {
+			int segment = index.getInt();
+			index.getInt();
+			boolean match = true;
+			for (int k = 0 ; k != 3 ; ++k) {
+				int min = index.getInt();
+				int max = index.getInt();
+				if (key[k] >= 0 && (key[k] < min || key[k] > max))
+					match = false;
+			}
+			if (match)
+				visitor.accept(read_segment(new File(dir, segment_name(segment))));
+		}
+	}
+
+	private static boolean match(int[] key, int side, int rats, int pipers)
+	{
+		return (key[0] < 0 || key[0] == side) &&
+		       (key[1] < 0 || key[1] == rats) &&
+		       (key[2] < 0 || key[2] == pipers);
+	}
+
+	// score statistics of every group per (side, rats, pipers)
+	public ResultStats stats() throws IOException
+	{
+		ResultStats stats = new ResultStats();
+		scan(-1, -1, -1, s -> {
+			for (int i = 0 ; i != s.count ; ++i) {
+				if (s.error[i] >= 0) continue;
+				for (int g = 0 ; g != 4 ; ++g)
+					stats.add(s.side[i], s.rats[i], s.pipers[i],
+					          s.dict[s.group[g][i]], s.score[g][i]);
+			}
+		});
+		return stats;
+	}
+
+	// print statistics (or all results as csv) of a result directory
+	public static void main(String[] args) throws IOException
+	{
+		String dir = "pppp/sim/results";
+		boolean csv = false;
+		for (String arg : args)
+			if (arg.equals("--csv")) csv = true;
+			else dir = arg;
+		ResultStore store = new ResultStore(new File(dir));
+		if (!csv) {
+			System.out.print(store.stats().table());
+			return;
+		}
+		store.scan(-1, -1, -1, s -> {
+			for (int i = 0 ; i != s.count ; ++i) {
+				Result r = s.result(i);
+				if (!r.failed()) System.out.println(r.csv());
+			}
+		});
+	}
+}
@@ -0,0 +1,217 @@
+package pppp.sim;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+// adaptive trials: every matchup (lineup in one configuration) is played
+// in rounds of 4 games that rotate the lineup through all seats, and stops
+// once the ranking of its groups is settled by a sequential test on the
+// per round score differences of adjacent groups, the budget saved goes
+// to the closest matchups (matrix trials is the mean number of games, as
+// many as without the scheduler, so it must allow one round per matchup)
+public class Scheduler {
+
+	// plays a batch of games (Tournament or Coordinator)
+	public interface Runner {
+		List <Result> run(List <Game> games, Consumer <Result> sink)
+		                 throws InterruptedException;
+	}
+
+	// boundary of the test (constant for all looks, so it is conservative)
+	public double z = 3.0;
+
+	// score difference per game too small to matter (ranked as a tie)
+	public double resolution = 0.5;
+
+	// rounds before the first test (fewer if the budget is smaller)
+	// & limit of games per matchup (times trials)
+	public int min_rounds = 3;
+	public int max_factor = 4;
+
+	private final Matrix matrix;
+	private final List <Matchup> matchups = new ArrayList <Matchup> ();
+
+	// lineup in one configuration & the seat balanced totals of its rounds
+	private static class Matchup {
+
+		final String[] lineup;
+		final int side;
+		final int rats;
+		final int pipers;
+		final SplittableRandom seeds;
+		final List <int[]> rounds = new ArrayList <int[]> ();
+		int played = 0;
+
+		// results of the round in progress (by rotation)
+		Result[] round = new Result [4];
+		int pending = 0;
+
+		Matchup(String[] lineup, int side, int rats, int pipers,
+		        SplittableRandom seeds)
+		{
+			this.lineup = lineup;
+			this.side = side;
+			this.rats = rats;
+			this.pipers = pipers;
+			this.seeds = seeds;
+		}
+
+		// the games of the next round (same seed, lineup rotated)
+		List <Game> round(long turns)
+		{
+			long seed = seeds.nextLong();
+			List <Game> games = new ArrayList <Game> ();
+			for (int r = 0 ; r != 4 ; ++r) {
+				String[] groups = new String [4];
+				for (int s = 0 ; s != 4 ; ++s)
+					groups[s] = lineup[(s + r) % 4];
+				games.add(new Game(groups, side, rats, pipers, turns, seed));
+			}
+			pending = 4;
+			played++;
+			return games;
+		}
+
+		// add a result of the round in progress (complete rounds are kept)
+		void add(int rotation, Result result)
+		{
+			round[rotation] = result;
+			if (--pending != 0) return;
+			int[] total = new int [4];
+			for (int r = 0 ; r != 4 ; ++r) {
+				if (round[r].failed()) return;
+				for (int i = 0 ; i != 4 ; ++i)
+					total[i] += round[r].score[(i - r + 4) % 4];
+			}
+			rounds.add(total);
+		}
+
+		double mean(int i)
+		{
+			double sum = 0.0;
+			for (int[] total : rounds)
+				sum += total[i];
+			return rounds.isEmpty() ? 0.0 : sum / rounds.size();
+		}
+
+		// positions of the lineup from best to worst
+		Integer[] ranking()
+		{
+			Integer[] order = {0, 1, 2, 3};
+			Arrays.sort(order, (a, b) -> Double.compare(mean(b), mean(a)));
+			return order;
+		}
+
+		// distance of the closest adjacent pair from settling
+		// (negative once all pairs are settled, in standard errors)
+		double margin(double z, double resolution, int min_rounds)
+		{
+			int n = rounds.size();
+			if (n < min_rounds) return Double.POSITIVE_INFINITY;
+			Integer[] order = ranking();
+			double worst = -z;
+			for (int k = 0 ; k != 3 ; ++k) {
+				int a = order[k];
+				int b = order[k + 1];
+				if (lineup[a].equals(lineup[b])) continue;
+				double mean = 0.0;
+				double m2 = 0.0;
+				for (int j = 0 ; j != n ; ++j) {
+					double d = rounds.get(j)[a] - rounds.get(j)[b];
+					double delta = d - mean;
+					mean += delta / (j + 1);
+					m2 += delta * (d - mean);
+				}
+				double se = n < 2 ? Double.POSITIVE_INFINITY
+				                  : Math.sqrt(m2 / (n - 1) / n);
+				// settled if apart, or equal within the resolution of a round
+				if (Math.abs(mean) > z * se) continue;
+				if (z * se < resolution * 4) continue;
+				worst = Math.max(worst, z - Math.abs(mean) / se);
+			}
+			return worst;
+		}
+	}
+
+	public Scheduler(Matrix matrix)
+	{
+		this.matrix = matrix;
+		if (matrix.trials < 4)
+			throw new IllegalArgumentException("Adaptive trials need at least 4"
+			                                   + " games (one round) per matchup");
+		SplittableRandom seeds = new SplittableRandom(matrix.seed);
+		for (String[] lineup : matrix.lineups())
+			for (int side : matrix.sides)
+				for (int n_rats : matrix.rats)
+					for (int n_pipers : matrix.pipers)
+						matchups.add(new Matchup(lineup, side, n_rats, n_pipers,
+						                         seeds.split()));
+	}
+
+	// play rounds until every ranking is settled or the budget is spent
+	public List <Result> run(Runner runner, Consumer <Result> sink)
+	                        throws InterruptedException
+	{
+		List <Result> results = new ArrayList <Result> ();
+		// games left, the first rounds never take more than their share
+		long budget = (long) matrix.trials * matchups.size();
+		int first = first_rounds();
+		int max_rounds = Math.max(first, matrix.trials * max_factor / 4);
+		for (int r = 0 ; r != first ; ++r) {
+			play(matchups, runner, sink, results);
+			budget -= 4L * matchups.size();
+		}
+		while (budget >= 4) {
+			// unsettled matchups, furthest from settling (closest scores) first
+			// as those are the rankings the extra rounds are meant to decide
+			List <Matchup> open = new ArrayList <Matchup> ();
+			for (Matchup m : matchups)
+				if (m.played < max_rounds &&
+				    m.margin(z, resolution, first) > 0.0) open.add(m);
+			if (open.isEmpty()) break;
+			open.sort((a, b) -> Double.compare(b.margin(z, resolution, first),
+			                                   a.margin(z, resolution, first)));
+			if (open.size() > budget / 4)
+				open = open.subList(0, (int) (budget / 4));
+			play(open, runner, sink, results);
+			budget -= 4L * open.size();
+		}
+		return results;
+	}
+
+	// rounds before the first test within the budget (trials is at least 4)
+	private int first_rounds()
+	{
+		return Math.min(min_rounds, matrix.trials / 4);
+	}
+
+	// play one round of each matchup as a single batch
+	private void play(List <Matchup> batch, Runner runner, Consumer <Result> sink,
+	                  List <Result> results) throws InterruptedException
+	{
+		List <Game> games = new ArrayList <Game> ();
+		for (Matchup m : batch)
+			games.addAll(m.round(matrix.turns));
+		List <Result> played = runner.run(games, sink);
+		for (int i = 0 ; i != played.size() ; ++i)
+			batch.get(i / 4).add(i % 4, played.get(i));
+		results.addAll(played);
+	}
+
+	// rounds & ranking of every matchup (mean score per game)
+	public String summary()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("side,rats,pipers,rounds,settled,ranking\n");
+		for (Matchup m : matchups) {
+			buf.append(m.side + "," + m.rats + "," + m.pipers + "," + m.played
+			           + "," + (m.margin(z, resolution, first_rounds()) <= 0.0 ? "yes" : "no") + ",");
+			Integer[] order = m.ranking();
+			for (int k = 0 ; k != 4 ; ++k)
+				buf.append((k == 0 ? "" : " > ") + m.lineup[order[k]]
+				           + String.format(" %.2f", m.mean(order[k]) / 4));
+			buf.append("\n");
+		}
+		return buf.toString();
+	}
+}
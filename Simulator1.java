@@ -2,16 +2,21 @@ package pppp.sim;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import javax.tools.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class Simulator1 {
 
-	// random generator
+	// random generator (only used to set up the game) & fixed seed
 	private Random gen = new Random();
+	private boolean seeded = false;
+	private long seed = 0;
 
 	// root folder
-	private final String root = "pppp";
+	private static final String root = "pppp";
 
 	// default sizes
 	private int inner_side = 100;
@@ -36,79 +41,212 @@ class Simulator1 {
 	// print messages to terminal
 	private boolean verbose = false;
 
-	// exit on player exception
+	// event tracing (null if disabled) & text dump of the last events
+	private Tracer trace = null;
+	private String trace_file = null;
+	private int trace_size = 1 << 16;
+
+	// replay of every turn (null if disabled) & turns between keyframes
+	private String replay_file = null;
+	private int replay_keyframes = 100;
+	private ReplayRecorder replay = null;
+	private Frame replay_frame = null;
+
+	// exit on player exception (otherwise abort only the game)
 	private boolean exit_on_exception = true;
 
+	// turns played
+	private long turn = 0;
+
 	// group players
 	private String[] groups = new String [4];
-	private Class[] player_classes = new Class [4];
+	private Class <?> [] player_classes = new Class <?> [4];
 	private Player[] players = new Player [4];
 	private int[] score = new int [4];
-	private String[] direction = new String [4];
+	private String[] direction = {"north", "east", "south", "west"};
 
 	// piper positions & moves
-	private Point[][] pipers = null;
-	private Move[][] moves = null;
+	private double[][] piper_x = null;
+	private double[][] piper_y = null;
+	private double[][] move_dx = null;
+	private double[][] move_dy = null;
+	private boolean[][] move_play = null;
 
-	// copy arrays
-	private Point[][] pipers_copy = null;
-	private Point[][] pipers_copy_2D = null;
-	private boolean[][] pipers_played_copy = null;
-	private boolean[][] pipers_played_copy_2D = null;
+	// moves as submitted by players
+	private Move[][] moves = null;
 
-	// rat positions & tunes
-	private Point[] rats = null;
-	private Point[] rats_copy = null;
+	// rat positions & tunes (live rats are the first rat_count)
+	private int rat_count = 0;
+	private double[] rat_x = null;
+	private double[] rat_y = null;
 	private int[] rat_tune = null;
 	private double[] rat_angle = null;
 	private boolean[] rat_random_angle = null;
+	private boolean[] rat_caught = null;
 
-	// copy data to avoid corruption by players
-	private void copy()
-	{
-		if (pipers_copy == null) {
-			pipers_copy = new Point [pipers.length][];
-			pipers_copy_2D = new Point [pipers.length][];
-			pipers_played_copy = new boolean [pipers.length][];
-			pipers_played_copy_2D = new boolean [pipers.length][];
-			for (int g = 0 ; g != pipers.length ; ++g) {
-				pipers_copy_2D[g] = new Point [pipers[g].length];
-				pipers_played_copy_2D[g] = new boolean [pipers[g].length];
-			}
-		}
-		for (int g = 0 ; g != groups.length ; ++g) {
-			pipers_copy[g] = pipers_copy_2D[g];
-			pipers_played_copy[g] = pipers_played_copy_2D[g];
+	// stable rat ids & per rat random streams (keyed by seed and id)
+	private int[] rat_id = null;
+	private long[] rat_rng = null;
+
+	// point view of positions (materialized only for snapshots)
+	private Point[][] pipers = null;
+	private Point[] rats = null;
+
+	// engines sharing the state arrays after a fork (null if not shared)
+	private AtomicInteger sharers = null;
+
+	// checkpoint format
+	private static final int CHECKPOINT = 0x50504350;  // "PPCP"
+
+	// snapshot of the current turn shared by all players
+	private Snapshot snapshot = null;
+
+	// spatial index of playing pipers & tune count scratch
+	private PiperGrid grid = null;
+	// spatial index of all pipers for dormant rats (built if fast forward)
+	private PiperGrid all_pipers = null;
+	private int[] tune_count = new int [4];
+
+	// parallel rat update (per chunk scratch, captures reduced after)
+	private int threads = 1;
+	private int rat_chunk = 1024;
+	private ForkJoinPool pool = null;
+	private int[][] chunk_count = null;
+	private int[][] chunk_score = null;
+	private int[] chunk_caught = null;
+
+	// event driven motion of rats that hear no tune (null if disabled)
+	// a dormant rat moves on a straight line from its anchor position and
+	// is stepped again when it may reach a wall or the range of a piper
+	private boolean fast_forward = false;
+	private RatQueue queue = null;
+	private boolean[] rat_dormant = null;
+	private long[] rat_t0 = null;
+	private double[] rat_x0 = null;
+	private double[] rat_y0 = null;
+	private double[] rat_vx = null;
+	private double[] rat_vy = null;
+	private int[] rat_index = null;
+
+	// per turn deadline of players in ms (players called in turn if negative)
+	private long deadline = -1;
+	private ExecutorService player_pool = null;
+	private Future <?> [] pending = new Future <?> [4];
+
+	// latency of turn phases & players (null if not measured)
+	private boolean measure = false;
+	private Metrics metrics = null;
+
+	// move of a player that missed the deadline
+	private static final Move idle = new Move(0.0, 0.0, false);
+
+	// publish the state of the current turn (once for all players)
+	// points that did not move are reused from the previous snapshot
+	private Snapshot publish()
+	{
+		if (snapshot == null || snapshot.turn != turn)
+			snapshot = take_snapshot();
+		return snapshot;
+	}
+
+	// snapshot of the current state (not cached)
+	Snapshot take_snapshot()
+	{
+		for (int g = 0 ; g != pipers.length ; ++g)
 			for (int p = 0 ; p != pipers[g].length ; ++p) {
-				pipers_copy[g][p] = pipers[g][p];
-				pipers_played_copy[g][p] = moves[g][p] != null &&
-				                           moves[g][p].play;
+				Point q = pipers[g][p];
+				double x = piper_x[g][p];
+				double y = piper_y[g][p];
+				if (q == null || q.x != x || q.y != y)
+					pipers[g][p] = new Point(x, y);
 			}
+		for (int r = 0 ; r != rat_count ; ++r) {
+			Point q = rats[r];
+			double x = rat_x[r];
+			double y = rat_y[r];
+			if (q == null || q.x != x || q.y != y)
+				rats[r] = new Point(x, y);
+		}
+		Point[][] pipers_shared = new Point [pipers.length][];
+		boolean[][] played_shared = new boolean [pipers.length][];
+		for (int g = 0 ; g != pipers.length ; ++g) {
+			pipers_shared[g] = pipers[g].clone();
+			played_shared[g] = move_play[g].clone();
 		}
-		if (rats_copy == null || rats_copy.length != rats.length)
-			rats_copy = new Point [rats.length];
-		for (int r = 0 ; r != rats.length ; ++r)
-			rats_copy[r] = rats[r];
+		return new Snapshot(turn, pipers_shared, played_shared,
+		                    Arrays.copyOf(rats, rat_count),
+		                    Arrays.copyOf(rat_id, rat_count));
 	}
 
-	// initialize game
-	private boolean init(int n_pipers, int n_rats)
+	// allocate state & scratch arrays
+	private void allocate(int n_pipers, int n_rats)
 	{
-		pipers = new Point [4][n_pipers];
-		moves = new Move [4][n_pipers];
-		rats = new Point [n_rats];
+		piper_x = new double [4][n_pipers];
+		piper_y = new double [4][n_pipers];
+		move_dx = new double [4][n_pipers];
+		move_dy = new double [4][n_pipers];
+		move_play = new boolean [4][n_pipers];
+		rat_x = new double [n_rats];
+		rat_y = new double [n_rats];
 		rat_tune = new int [n_rats];
 		rat_angle = new double [n_rats];
 		rat_random_angle = new boolean [n_rats];
+		rat_id = new int [n_rats];
+		rat_rng = new long [n_rats];
+		allocate_scratch(n_pipers, n_rats);
+	}
+
+	// allocate scratch & the trace, metrics and fast forward of a game
+	private void allocate_scratch(int n_pipers, int n_rats)
+	{
+		moves = new Move [4][n_pipers];
+		pipers = new Point [4][n_pipers];
+		rat_caught = new boolean [n_rats];
+		int chunks = (n_rats + rat_chunk - 1) / rat_chunk;
+		chunk_count = new int [chunks][4];
+		chunk_score = new int [chunks][4];
+		chunk_caught = new int [chunks];
+		rats = new Point [n_rats];
+		snapshot = null;
+		grid = new PiperGrid(inner_side * 0.5 + outer_side, 10.0);
+		all_pipers = new PiperGrid(inner_side * 0.5 + outer_side, 10.0);
+		// verbose output is formatted from the trace after every turn
+		if (verbose)
+			trace_size = Math.max(trace_size, 4 * (n_rats + 32 * n_pipers));
+		if (verbose || trace_file != null)
+			trace = new Tracer(trace_size, groups);
+		metrics = measure ? new Metrics(groups) : null;
+		// dormant rats are not traced
+		queue = null;
+		if (fast_forward && trace == null) {
+			queue = new RatQueue(n_rats);
+			rat_dormant = new boolean [n_rats];
+			rat_t0 = new long [n_rats];
+			rat_x0 = new double [n_rats];
+			rat_y0 = new double [n_rats];
+			rat_vx = new double [n_rats];
+			rat_vy = new double [n_rats];
+			rat_index = new int [n_rats];
+		}
+	}
+
+	// initialize game
+	private boolean init(int n_pipers, int n_rats)
+	{
+		allocate(n_pipers, n_rats);
+		rat_count = n_rats;
+		turn = 0;
+		for (int g = 0 ; g != 4 ; ++g)
+			score[g] = 0;
 		// initialize piper locations (specific)
 		for (int p = 0 ; p != n_pipers ; ++p) {
 			double d = (p + 1) * (inner_side / (double) (n_pipers + 1))
 			                    - inner_side * 0.5;
 			double s = inner_side * 0.5 + outer_side;
-			pipers[0][p] = new Point(d, +s);  // north
-			pipers[2][p] = new Point(d, -s);  // south
-			pipers[1][p] = new Point(+s, d);  // east
-			pipers[3][p] = new Point(-s, d);  // west
+			piper_x[0][p] = d;  piper_y[0][p] = +s;  // north
+			piper_x[2][p] = d;  piper_y[2][p] = -s;  // south
+			piper_x[1][p] = +s; piper_y[1][p] = d;   // east
+			piper_x[3][p] = -s; piper_y[3][p] = d;   // west
 		}
 		// initialize rat locations (random)
 		for (int r = 0 ; r != n_rats ; ++r) {
@@ -116,20 +254,36 @@ class Simulator1 {
 			int yi = gen.nextInt(inner_side * 1000 - 2);
 			double x = xi * 0.001 - inner_side * 0.5;
 			double y = yi * 0.001 - inner_side * 0.5;
-			rats[r] = new Point(x, y);
+			rat_x[r] = x;
+			rat_y[r] = y;
 			rat_tune[r] = -1;
 			rat_random_angle[r] = false;
 			rat_angle[r] = gen.nextDouble() * Math.PI * 2.0;
+			rat_id[r] = r;
 		}
-		// initialize players
+		// independent random stream per rat
+		long rat_seed = gen.nextLong();
+		for (int r = 0 ; r != n_rats ; ++r)
+			rat_rng[r] = mix64(rat_seed + rat_id[r] * 0x9e3779b97f4a7c15L);
+		return init_players();
+	}
+
+	// initialize game with given player classes instead of loading groups
+	boolean init(Class <?> [] classes, int n_pipers, int n_rats)
+	{
+		player_classes = classes.clone();
+		return init(n_pipers, n_rats);
+	}
+
+	// create players & initialize them with the current state
+	private boolean init_players()
+	{
+		Snapshot s = publish();
 		for (int g = 0 ; g != 4 ; ++g) {
 			players[g] = null;
-			score[g] = 0;
-			copy();
 			try {
 				players[g] = (Player) player_classes[g].newInstance();
-				players[g].init(g, inner_side, turn_limit,
-				                pipers_copy, rats_copy);
+				players[g].init(g, inner_side, turn_limit, s.pipers, s.rats);
 			} catch (Exception e) {
 				if (players[g] == null)
 					println("Exception by " + direction[g] +
@@ -138,17 +292,12 @@ class Simulator1 {
 					println("Exception by " + direction[g] +
 					        " group " + groups[g] + " init()");
 				print(e);
-				if (exit_on_exception) {
-					if (players[g] == null)
-						System.err.println("Group " + groups[g] + " threw"
-						+ " exception on constructor: " + e.getMessage());
-					else
-						System.err.println("Group " + groups[g] + " threw"
-						+ " exception on init(): " + e.getMessage());
-					System.err.println("Exiting ...");
-					System.exit(1);
-				}
-				players[g] = null;
+				if (players[g] == null)
+					fail("Group " + groups[g] + " threw"
+					     + " exception on constructor: " + e.getMessage(), e);
+				else
+					fail("Group " + groups[g] + " threw"
+					     + " exception on init(): " + e.getMessage(), e);
 			}
 		}
 		// check if there are any valid players
@@ -157,74 +306,441 @@ class Simulator1 {
 		return false;
 	}
 
+	// full engine state as bytes (players are not part of it)
+	byte[] checkpoint()
+	{
+		int n_pipers = piper_x[0].length;
+		byte[][] names = new byte [4][];
+		int size = 52 + 4 * n_pipers * 33 + rat_count * 38;
+		for (int g = 0 ; g != 4 ; ++g) {
+			names[g] = groups[g].getBytes(StandardCharsets.UTF_8);
+			size += 2 + names[g].length;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putInt(CHECKPOINT).putInt(1);
+		for (int g = 0 ; g != 4 ; ++g)
+			buf.putShort((short) names[g].length).put(names[g]);
+		buf.putInt(inner_side).putLong(turn).putLong(turn_limit);
+		buf.putInt(n_pipers).putInt(rat_count);
+		for (int g = 0 ; g != 4 ; ++g)
+			buf.putInt(score[g]);
+		for (int g = 0 ; g != 4 ; ++g)
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				buf.putDouble(piper_x[g][p]).putDouble(piper_y[g][p]);
+				buf.putDouble(move_dx[g][p]).putDouble(move_dy[g][p]);
+				buf.put((byte) (move_play[g][p] ? 1 : 0));
+			}
+		for (int r = 0 ; r != rat_count ; ++r) {
+			buf.putDouble(rat_x[r]).putDouble(rat_y[r]).putDouble(rat_angle[r]);
+			buf.put((byte) rat_tune[r]).put((byte) (rat_random_angle[r] ? 1 : 0));
+			buf.putInt(rat_id[r]).putLong(rat_rng[r]);
+		}
+		return buf.array();
+	}
+
+	// continue from a checkpoint (players are created again from its state)
+	boolean restore(byte[] state) throws Exception
+	{
+		ByteBuffer buf = ByteBuffer.wrap(state);
+		if (buf.getInt() != CHECKPOINT || buf.getInt() != 1)
+			throw new IllegalArgumentException("Not a checkpoint");
+		for (int g = 0 ; g != 4 ; ++g) {
+			byte[] name = new byte [buf.getShort()];
+			buf.get(name);
+			groups[g] = new String(name, StandardCharsets.UTF_8);
+		}
+		load(false);
+		inner_side = buf.getInt();
+		turn = buf.getLong();
+		turn_limit = buf.getLong();
+		int n_pipers = buf.getInt();
+		rat_count = buf.getInt();
+		// arrays shared with forks are replaced, not changed
+		if (sharers != null) {
+			sharers.decrementAndGet();
+			sharers = null;
+		}
+		allocate(n_pipers, rat_count);
+		for (int g = 0 ; g != 4 ; ++g)
+			score[g] = buf.getInt();
+		for (int g = 0 ; g != 4 ; ++g)
+			for (int p = 0 ; p != n_pipers ; ++p) {
+				piper_x[g][p] = buf.getDouble();
+				piper_y[g][p] = buf.getDouble();
+				move_dx[g][p] = buf.getDouble();
+				move_dy[g][p] = buf.getDouble();
+				move_play[g][p] = buf.get() != 0;
+			}
+		for (int r = 0 ; r != rat_count ; ++r) {
+			rat_x[r] = buf.getDouble();
+			rat_y[r] = buf.getDouble();
+			rat_angle[r] = buf.getDouble();
+			rat_tune[r] = buf.get();
+			rat_random_angle[r] = buf.get() != 0;
+			rat_id[r] = buf.getInt();
+			rat_rng[r] = buf.getLong();
+		}
+		return init_players();
+	}
+
+	// new engine continuing from the current state with new players
+	// (state arrays are shared until either engine plays a turn)
+	// the fork keeps the run settings (trace, metrics, fast forward with all
+	// rats awake, threads & deadline) but aborts only itself on exceptions,
+	// like every engine stepped by advance() it plays without the rat and
+	// player pools, which are started by play()
+	Simulator1 fork()
+	{
+		Simulator1 s = new Simulator1();
+		s.inner_side = inner_side;
+		s.turn_limit = turn_limit;
+		s.exit_on_exception = false;
+		s.turn = turn;
+		s.groups = groups.clone();
+		s.player_classes = player_classes.clone();
+		s.score = score.clone();
+		s.verbose = verbose;
+		s.trace_file = trace_file;
+		s.trace_size = trace_size;
+		s.fast_forward = fast_forward;
+		s.threads = threads;
+		s.rat_chunk = rat_chunk;
+		s.deadline = deadline;
+		s.measure = measure;
+		// scratch of the fork
+		s.allocate_scratch(piper_x[0].length, rat_x.length);
+		// shared state
+		if (sharers == null)
+			sharers = new AtomicInteger(1);
+		sharers.incrementAndGet();
+		s.sharers = sharers;
+		s.piper_x = piper_x;
+		s.piper_y = piper_y;
+		s.move_dx = move_dx;
+		s.move_dy = move_dy;
+		s.move_play = move_play;
+		s.rat_count = rat_count;
+		s.rat_x = rat_x;
+		s.rat_y = rat_y;
+		s.rat_tune = rat_tune;
+		s.rat_angle = rat_angle;
+		s.rat_random_angle = rat_random_angle;
+		s.rat_id = rat_id;
+		s.rat_rng = rat_rng;
+		if (!s.init_players())
+			throw new GameException("No valid players to fork game", null);
+		return s;
+	}
+
+	// copy the state arrays shared with forks before changing them
+	// (the last engine to change them keeps the originals, an engine
+	//  leaves the count only once its copy is done, so the originals
+	//  are not changed while another engine is copying them)
+	void unshare()
+	{
+		if (sharers == null) return;
+		if (sharers.get() != 1) {
+			piper_x = copy(piper_x);
+			piper_y = copy(piper_y);
+			move_dx = copy(move_dx);
+			move_dy = copy(move_dy);
+			move_play = copy(move_play);
+			rat_x = rat_x.clone();
+			rat_y = rat_y.clone();
+			rat_tune = rat_tune.clone();
+			rat_angle = rat_angle.clone();
+			rat_random_angle = rat_random_angle.clone();
+			rat_id = rat_id.clone();
+			rat_rng = rat_rng.clone();
+		}
+		sharers.decrementAndGet();
+		sharers = null;
+	}
+
+	private static double[][] copy(double[][] a)
+	{
+		double[][] b = new double [a.length][];
+		for (int i = 0 ; i != a.length ; ++i)
+			b[i] = a[i].clone();
+		return b;
+	}
+
+	private static boolean[][] copy(boolean[][] a)
+	{
+		boolean[][] b = new boolean [a.length][];
+		for (int i = 0 ; i != a.length ; ++i)
+			b[i] = a[i].clone();
+		return b;
+	}
+
+	// play up to a number of turns (or until the game is over)
+	void advance(long turns)
+	{
+		for (long t = 0 ; t != turns && turn_limit != 0 ; ++t) {
+			next();
+			if (turn_limit > 0) turn_limit--;
+			if (rat_count == 0) turn_limit = 0;
+		}
+	}
+
+	long turn()
+	{
+		return turn;
+	}
+
+	int rat_count()
+	{
+		return rat_count;
+	}
+
+	int[] score()
+	{
+		return score.clone();
+	}
+
 	// next state of game
-	private void next()
+	void next()
 	{
-		// get moves from players
+		long start = now();
+		unshare();
+		long t = lap(Metrics.COPY, start);
+		turn++;
+		if (trace != null) trace.begin_turn();
+		get_moves();
+		t = lap(Metrics.MOVES, t);
+		move_rats();
+		t = lap(Metrics.RATS, t);
+		move_pipers();
+		lap(Metrics.PIPERS, t);
+		if (metrics != null)
+			metrics.turn(System.nanoTime() - start, score, rat_count);
+		// print events and info on player positions
+		if (verbose) {
+			trace.drain(System.out);
+			for (int g = 0 ; g != piper_x.length ; ++g) {
+				print("Group " + groups[g] + " ");
+				for (int p = 0 ; p != piper_x[g].length ; ++p) {
+					print("(" + piper_x[g][p] + ", " + piper_y[g][p] + ")");
+					if (p + 1 != piper_x[g].length) print(", ");
+				}
+				println(": " + score[g] + " [" + direction[g] + "]");
+			}
+		}
+	}
+
+	// get the moves of all players for this turn and limit their speed
+	void get_moves()
+	{
+		// all players see the same state of the turn (arrays are read-only)
+		Snapshot s = publish();
+		// get moves from players (all at once if there is a deadline)
+		if (player_pool != null)
+			play_concurrent(s);
 		for (int g = 0 ; g != 4 ; ++g) {
-			// clear array of moves
-			for (int p = 0 ; p != pipers[g].length ; ++p)
-				moves[g][p] = null;
-			// ask player for next move
-			if (players[g] != null) {
-				copy();
-				try {
-					players[g].play(pipers_copy, pipers_played_copy,
-					                rats_copy, moves[g]);
-				} catch (RuntimeException e) {
-					println("Exception by " + direction[g] +
-					        " group " + groups[g] + " play()");
-					print(e);
-					if (exit_on_exception) {
-						System.err.println("Group " + groups[g] + " threw"
-						+ " exception on play(): " + e.getMessage());
-						System.err.println("Exiting ...");
-						System.exit(1);
+			if (player_pool == null) {
+				// clear array of moves
+				for (int p = 0 ; p != pipers[g].length ; ++p)
+					moves[g][p] = null;
+				// ask player for next move
+				if (players[g] != null) {
+					try {
+						ask(g, players[g], s, moves[g]);
+					} catch (RuntimeException e) {
+						play_exception(g, e);
 					}
 				}
 			}
-			for (int p = 0 ; p != pipers[g].length ; ++p)
+			for (int p = 0 ; p != pipers[g].length ; ++p) {
+				Move m = moves[g][p];
 				// if move is invalid immobilize piper
-				if (moves[g][p] == null ||
-				    Double.isNaN(moves[g][p].dx) || 
-				    Double.isNaN(moves[g][p].dy) ||
-				    Double.isInfinite(moves[g][p].dx) ||
-				    Double.isInfinite(moves[g][p].dy)) {
-					moves[g][p] = new Move(0.0, 0.0, false);
-					println("Invalid move by group " + groups[g]);
+				if (m == null ||
+				    Double.isNaN(m.dx) ||
+				    Double.isNaN(m.dy) ||
+				    Double.isInfinite(m.dx) ||
+				    Double.isInfinite(m.dy)) {
+					move_dx[g][p] = 0.0;
+					move_dy[g][p] = 0.0;
+					move_play[g][p] = false;
+					if (trace != null) trace.event(Tracer.MOVE_INVALID, g, p);
 				} else {
 					// fix movement if speed exceeds limit
-					double dx = moves[g][p].dx;
-					double dy = moves[g][p].dy;
-					boolean play = moves[g][p].play;
+					double dx = m.dx;
+					double dy = m.dy;
+					boolean play = m.play;
 					double length = Math.hypot(dx, dy);
 					double piper_speed = play ? piper_play_speed
 					                          : piper_mute_speed;
 					if (length > piper_speed) {
 						dx = dx * piper_speed / length;
 						dy = dy * piper_speed / length;
-						moves[g][p] = new Move(dx, dy, play);
-						println("Fixed move by group " + groups[g]);
+						if (trace != null)
+							trace.event(Tracer.MOVE_FIXED, g, p, m.dx, m.dy);
 					}
+					move_dx[g][p] = dx;
+					move_dy[g][p] = dy;
+					move_play[g][p] = play;
 				}
+			}
 		}
-		// update rat positions
-		for (int r = 0 ; r != rats.length ; ++r) {
-			Point p1 = rats[r];
-			// find dominant tune
-			int cc = 0;
-			int cg = -1;
-			for (int g = 0 ; g != pipers.length ; ++g) {
-				int c = 0;
-				for (int p = 0 ; p != pipers[g].length ; ++p)
-					if (moves[g][p].play &&
-					    p1.distance(pipers[g][p]) <= 10.0) c++;
-				if (c == cc) cg = -1;
-				else if (c > cc) {
-					cg = g;
-					cc = c;
+	}
+
+	// move rats towards tunes and capture the rats that reach a piper
+	void move_rats()
+	{
+		// index playing pipers for tune lookups
+		grid.build(piper_x, piper_y, move_play);
+		// index all pipers for the rats that start moving freely
+		if (queue != null)
+			all_pipers.build(piper_x, piper_y, null);
+		// wake rats that may stop moving freely in this turn
+		if (queue != null)
+			while (!queue.isEmpty() && queue.turn() <= turn)
+				rat_dormant[rat_index[queue.pop()]] = false;
+		// update rat positions (traced games step sequentially to keep event order)
+		int caught;
+		if (pool == null || trace != null || queue != null || rat_count <= rat_chunk)
+			caught = step_rats(0, rat_count, tune_count, score);
+		else
+			caught = step_rats_parallel();
+		// discard caught rats (compact in place, keeping order)
+		if (caught != 0) {
+			int vr = 0;
+			for (int r = 0 ; r != rat_count ; ++r)
+				if (!rat_caught[r]) {
+					rat_x[vr] = rat_x[r];
+					rat_y[vr] = rat_y[r];
+					rat_tune[vr] = rat_tune[r];
+					rat_angle[vr] = rat_angle[r];
+					rat_random_angle[vr] = rat_random_angle[r];
+					rat_rng[vr] = rat_rng[r];
+					rat_id[vr] = rat_id[r];
+					if (queue != null) {
+						rat_dormant[vr] = rat_dormant[r];
+						rat_t0[vr] = rat_t0[r];
+						rat_x0[vr] = rat_x0[r];
+						rat_y0[vr] = rat_y0[r];
+						rat_vx[vr] = rat_vx[r];
+						rat_vy[vr] = rat_vy[r];
+						rat_index[rat_id[vr]] = vr;
+					}
+					rats[vr++] = rats[r];
+				} else rat_caught[r] = false;
+			for (int r = vr ; r != rat_count ; ++r)
+				rats[r] = null;
+			rat_count = vr;
+		}
+		// move dormant rats in closed form
+		if (queue != null)
+			for (int r = 0 ; r != rat_count ; ++r)
+				if (rat_dormant[r]) {
+					long t = turn - rat_t0[r];
+					rat_x[r] = rat_x0[r] + t * rat_vx[r];
+					rat_y[r] = rat_y0[r] + t * rat_vy[r];
+				}
+	}
+
+	// move pipers, stopping them at walls outside the doors
+	void move_pipers()
+	{
+		// update player positions
+		for (int g = 0 ; g != piper_x.length ; ++g)
+			for (int p = 0 ; p != piper_x[g].length ; ++p) {
+				double dx = move_dx[g][p];
+				double dy = move_dy[g][p];
+				double x1 = piper_x[g][p];
+				double y1 = piper_y[g][p];
+				double x2 = x1 + dx;
+				double y2 = y1 + dy;
+				// outer grid east & west
+				int side = inner_side + outer_side * 2;
+				if (Math.abs(x1) <= side * 0.5 &&
+				    Math.abs(x2) >  side * 0.5) {
+					dx = Math.copySign(side - Math.abs(x2), x2) - x1;
+					if (trace != null) trace.event(Tracer.PIPER_GRID_V, g, p);
+				}
+				// outer grid north & south
+				if (Math.abs(y1) <= side * 0.5 &&
+				    Math.abs(y2) > side * 0.5) {
+					dy = Math.copySign(side - Math.abs(y2), y2) - y1;
+					if (trace != null) trace.event(Tracer.PIPER_GRID_H, g, p);
+				}
+				// inner box outwards east & west
+				if (Math.abs(x1) <= inner_side * 0.5 &&
+				    Math.abs(x2) >  inner_side * 0.5) {
+					double x = Math.copySign(inner_side * 0.5, x2);
+					double y = y1 + (x - x1) * (y2 - y1) / (x2 - x1);
+					if (y >= door_length * -0.5 && y <= door_length * 0.5) {
+						if (trace != null)
+							trace.event(Tracer.PIPER_GATE_IN_V, g, p, x, y);
+					} else {
+						dx = Math.copySign(inner_side - Math.abs(x2), x2) - x1;
+						if (trace != null) trace.event(Tracer.PIPER_WALL_IN_V, g, p);
+					}
+				}
+				// inner box outwards north & south
+				if (Math.abs(y1) <= inner_side * 0.5 &&
+				    Math.abs(y2) > inner_side * 0.5) {
+					double y = Math.copySign(inner_side * 0.5, y2);
+					double x = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+					if (x >= door_length * -0.5 && x <= door_length * 0.5) {
+						if (trace != null)
+							trace.event(Tracer.PIPER_GATE_IN_H, g, p, x, y);
+					} else {
+						dy = Math.copySign(inner_side - Math.abs(y2), y2) - y1;
+						if (trace != null) trace.event(Tracer.PIPER_WALL_IN_H, g, p);
+					}
+				}
+				// inner box inwards east & west
+				if (Math.abs(x1) > inner_side * 0.5 &&
+				    Math.abs(x2) <= inner_side * 0.5) {
+					double x = Math.copySign(inner_side * 0.5, x2);
+					double y = y1 + (x - x1) * (y2 - y1) / (x2 - x1);
+					if (y >= door_length * -0.5 && y <= door_length * 0.5) {
+						if (trace != null)
+							trace.event(Tracer.PIPER_GATE_OUT_V, g, p, x, y);
+					} else {
+						dx = Math.copySign(inner_side - Math.abs(x2), x2) - x1;
+						if (x1 + dx == x) dx *= 0.999999;
+						if (trace != null) trace.event(Tracer.PIPER_WALL_OUT_V, g, p);
+					}
+				}
+				// inner box inwards north & sout
+				if (Math.abs(y1) > inner_side * 0.5 &&
+				    Math.abs(y2) <= inner_side * 0.5) {
+					double y = Math.copySign(inner_side * 0.5, y2);
+					double x = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+					if (x >= door_length * -0.5 && x <= door_length * 0.5) {
+						if (trace != null)
+							trace.event(Tracer.PIPER_GATE_OUT_H, g, p, x, y);
+					} else {
+						dy = Math.copySign(inner_side - Math.abs(y2), y2) - y1;
+						if (y1 + dy == y) dy *= 0.999999;
+						if (trace != null) trace.event(Tracer.PIPER_WALL_OUT_H, g, p);
+					}
+				}
+				if (dx == 0.0 && dy == 0.0) {
+					if (trace != null)
+						trace.event(Tracer.PIPER_STILL, g, p, x1, y1);
+				} else {
+					piper_x[g][p] = x2 = x1 + dx;
+					piper_y[g][p] = y2 = y1 + dy;
+					if (trace != null)
+						trace.event(Tracer.PIPER_MOVED, g, p, x1, y1, x2, y2);
 				}
 			}
+	}
+
+	// update rats [lo, hi) and count captures per group
+	// (rats only touch their own slots, so ranges can run concurrently)
+	private int step_rats(int lo, int hi, int[] count, int[] captures)
+	{
+		int caught = 0;
+		for (int r = lo ; r != hi ; ++r) {
+			if (queue != null && rat_dormant[r]) continue;
+			double x1 = rat_x[r];
+			double y1 = rat_y[r];
+			// find dominant tune
+			int cg = grid.tune(x1, y1, count);
 			rat_tune[r] = cg;
 			// next location
 			double dx = 0.0;
@@ -233,25 +749,21 @@ class Simulator1 {
 				// generate new random angle
 				if (rat_random_angle[r]) {
 					rat_random_angle[r] = false;
-					rat_angle[r] = gen.nextDouble() * Math.PI * 2.0;
+					rat_angle[r] = next_double(rat_rng, r) * Math.PI * 2.0;
 				}
 				// use angle to get movements
 				dx = rat_speed * Math.cos(rat_angle[r]);
 				dy = rat_speed * Math.sin(rat_angle[r]);
 			} else {
 				// find closest piper of dominant group
-				Point p2 = null;
-				for (int p = 0 ; p != pipers[cg].length ; ++p) {
-					Point p3 = pipers[cg][p];
-					if (moves[cg][p].play && (p2 == null ||
-						p1.distance(p3) < p1.distance(p2)))
-						p2 = p3;
-				}
+				int p = grid.closest(x1, y1, cg);
+				double px = piper_x[cg][p];
+				double py = piper_y[cg][p];
 				// move towards closest piper if not too close
-				double dist = p1.distance(p2);
+				double dist = PiperGrid.distance(x1, y1, px, py);
 				if (dist >= 2.0) {
-					dx = (p2.x - p1.x) * rat_speed / dist;
-					dy = (p2.y - p1.y) * rat_speed / dist;
+					dx = (px - x1) * rat_speed / dist;
+					dy = (py - y1) * rat_speed / dist;
 					// set new angle
 					rat_angle[r] = Math.atan2(dy, dx);
 					if (rat_angle[r] < 0.0)
@@ -260,191 +772,268 @@ class Simulator1 {
 				// will generate new random angle
 				rat_random_angle[r] = true;
 			}
-			Point p2 = new Point(p1.x + dx, p1.y + dy);
+			double x2 = x1 + dx;
+			double y2 = y1 + dy;
 			// east & west collision
-			if (Math.abs(p2.x) > inner_side * 0.5) {
-				double x = Math.copySign(inner_side * 0.5, p2.x);
-				double y = p1.y + (x - p1.x) * (p2.y - p1.y)
-				                             / (p2.x - p1.x);
+			if (Math.abs(x2) > inner_side * 0.5) {
+				double x = Math.copySign(inner_side * 0.5, x2);
+				double y = y1 + (x - x1) * (y2 - y1) / (x2 - x1);
 				if (y >= door_length * -0.5 && y <= door_length * 0.5) {
-					score[p2.x > 0.0 ? 1 : 3]++;
-					rats[r] = null;
-					println("Rat caught at (" + x + ", " + y + ")");
+					int door = x2 > 0.0 ? 1 : 3;
+					captures[door]++;
+					rat_caught[r] = true;
+					caught++;
+					if (trace != null)
+						trace.event(Tracer.RAT_CAUGHT, door, rat_id[r], x, y);
 					continue;
 				}
-				dx = Math.copySign(inner_side - Math.abs(p2.x), p2.x) - p1.x;
+				dx = Math.copySign(inner_side - Math.abs(x2), x2) - x1;
 				rat_angle[r] -= Math.PI * 0.5;
 				rat_angle[r] = Math.PI * 2.0 - rat_angle[r];
 				rat_angle[r] += Math.PI * 0.5;
 				if (rat_angle[r] >= Math.PI * 2.0)
 					rat_angle[r] -= Math.PI * 2.0;
-				println("Rat collided with vertical wall");
+				if (trace != null) trace.event(Tracer.RAT_WALL_V, -1, rat_id[r]);
 			}
 			// north & south collision
-			if (Math.abs(p2.y) > inner_side * 0.5) {
-				double y = Math.copySign(inner_side * 0.5, p2.y);
-				double x = p1.x + (y - p1.y) * (p2.x - p1.x)
-				                             / (p2.y - p1.y);
+			if (Math.abs(y2) > inner_side * 0.5) {
+				double y = Math.copySign(inner_side * 0.5, y2);
+				double x = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
 				if (x >= door_length * -0.5 && x <= door_length * 0.5) {
-					score[p2.y > 0.0 ? 0 : 2]++;
-					rats[r] = null;
-					println("Rat caught at (" + x + ", " + y + ")");
+					int door = y2 > 0.0 ? 0 : 2;
+					captures[door]++;
+					rat_caught[r] = true;
+					caught++;
+					if (trace != null)
+						trace.event(Tracer.RAT_CAUGHT, door, rat_id[r], x, y);
 					continue;
 				}
-				dy = Math.copySign(inner_side - Math.abs(p2.y), p2.y) - p1.y;
+				dy = Math.copySign(inner_side - Math.abs(y2), y2) - y1;
 				rat_angle[r] = Math.PI * 2.0 - rat_angle[r];
-				println("Rat collided with horizontal wall");
+				if (trace != null) trace.event(Tracer.RAT_WALL_H, -1, rat_id[r]);
 			}
 			// update rat location
-			if (dx == 0.0 && dy == 0.0)
-				println("Rat is still at (" + p1.x + ", " + p1.y + ")");
-			else {
-				rats[r] = p2 = new Point(p1.x + dx, p1.y + dy);
-				println("Rat moved from (" + p1.x + ", " + p1.y + ")" +
-				                   " to (" + p2.x + ", " + p2.y + ")");
+			if (dx == 0.0 && dy == 0.0) {
+				if (trace != null)
+					trace.event(Tracer.RAT_STILL, -1, rat_id[r], x1, y1);
+			} else {
+				rat_x[r] = x2 = x1 + dx;
+				rat_y[r] = y2 = y1 + dy;
+				if (trace != null)
+					trace.event(Tracer.RAT_MOVED, -1, rat_id[r], x1, y1, x2, y2);
 			}
+			if (queue != null && cg == -1)
+				sleep(r);
 		}
-		// discard caught rats
-		int vr = 0;
-		for (int r = 0 ; r != rats.length ; ++r)
-			if (rats[r] != null) {
-				rat_tune[vr] = rat_tune[r];
-				rat_angle[vr] = rat_angle[r];
-				rat_random_angle[vr] = rat_random_angle[r];
-				rats[vr++] = rats[r];
-			}
-		rats = Arrays.copyOf(rats, vr);
-		// update player positions
-		for (int g = 0 ; g != pipers.length ; ++g)
-			for (int p = 0 ; p != pipers[g].length ; ++p) {
-				double dx = moves[g][p].dx;
-				double dy = moves[g][p].dy;
-				Point p1 = pipers[g][p];
-				Point p2 = new Point(p1.x + dx, p1.y + dy);
-				// outer grid east & west
-				int side = inner_side + outer_side * 2;
-				if (Math.abs(p1.x) <= side * 0.5 &&
-				    Math.abs(p2.x) >  side * 0.5) {
-					dx = Math.copySign(side - Math.abs(p2.x), p2.x) - p1.x;
-					println("Piper collided with vertical grid wall");
-				}
-				// outer grid north & south
-				if (Math.abs(p1.y) <= side * 0.5 &&
-				    Math.abs(p2.y) > side * 0.5) {
-					dy = Math.copySign(side - Math.abs(p2.y), p2.y) - p1.y;
-					println("Piper collided with horizontal grid wall");
-				}
-				// inner box outwards east & west
-				if (Math.abs(p1.x) <= inner_side * 0.5 &&
-				    Math.abs(p2.x) >  inner_side * 0.5) {
-					double x = Math.copySign(inner_side * 0.5, p2.x);
-					double y = p1.y + (x - p1.x) * (p2.y - p1.y)
-					                             / (p2.x - p1.x);
-					if (y >= door_length * -0.5 && y <= door_length * 0.5)
-						println("Piper passed vertical gate from inside"
-						        + " (" + x + ", " + y + ")");
-					else {
-						dx = Math.copySign(inner_side - Math.abs(p2.x), p2.x) - p1.x;
-						println("Piper collided with vertical wall from inside");
-					}
-				}
-				// inner box outwards north & south
-				if (Math.abs(p1.y) <= inner_side * 0.5 &&
-				    Math.abs(p2.y) > inner_side * 0.5) {
-					double y = Math.copySign(inner_side * 0.5, p2.y);
-					double x = p1.x + (y - p1.y) * (p2.x - p1.x)
-					                             / (p2.y - p1.y);
-					if (x >= door_length * -0.5 && x <= door_length * 0.5)
-						println("Piper passed horizontal gate from inside"
-						        + " (" + x + ", " + y + ")");
-					else {
-						dy = Math.copySign(inner_side - Math.abs(p2.y), p2.y) - p1.y;
-						println("Piper collided with horizontal wall from inside");
-					}
-				}
-				// inner box inwards east & west
-				if (Math.abs(p1.x) > inner_side * 0.5 &&
-				    Math.abs(p2.x) <= inner_side * 0.5) {
-					double x = Math.copySign(inner_side * 0.5, p2.x);
-					double y = p1.y + (x - p1.x) * (p2.y - p1.y)
-					                             / (p2.x - p1.x);
-					if (y >= door_length * -0.5 && y <= door_length * 0.5)
-						println("Piper passed vertical gate from outside"
-						        + " (" + x + ", " + y + ")");
-					else {
-						dx = Math.copySign(inner_side - Math.abs(p2.x), p2.x) - p1.x;
-						if (p1.x + dx == x) dx *= 0.999999;
-						println("Piper collided with vertical wall from outside");
-					}
-				}
-				// inner box inwards north & sout
-				if (Math.abs(p1.y) > inner_side * 0.5 &&
-				    Math.abs(p2.y) <= inner_side * 0.5) {
-					double y = Math.copySign(inner_side * 0.5, p2.y);
-					double x = p1.x + (y - p1.y) * (p2.x - p1.x)
-					                             / (p2.y - p1.y);
-					if (x >= door_length * -0.5 && x <= door_length * 0.5)
-						println("Piper passed horizontal gate from outside"
-						        + " (" + x + ", " + y + ")");
-					else {
-						dy = Math.copySign(inner_side - Math.abs(p2.y), p2.y) - p1.y;
-						if (p1.y + dy == y) dy *= 0.999999;
-						println("Piper collided with horizontal wall from outside");
-					}
-				}
-				if (dx == 0.0 && dy == 0.0)
-					println("Piper stayed still at (" + p1.x + ", " + p1.y + ")");
-				else {
-					pipers[g][p] = p2 = new Point(p1.x + dx, p1.y + dy);
-					println("Piper moved from (" + p1.x + ", " + p1.y + ")"
-					        + " to (" + p2.x + ", " + p2.y + ")");
+		return caught;
+	}
+
+	// let a rat that heard no tune move freely for as long as it can hear
+	// no piper and hit no wall (turns are bounded one short for rounding)
+	private void sleep(int r)
+	{
+		double x = rat_x[r];
+		double y = rat_y[r];
+		double vx = rat_speed * Math.cos(rat_angle[r]);
+		double vy = rat_speed * Math.sin(rat_angle[r]);
+		// free steps before a wall (or door)
+		double half = inner_side * 0.5;
+		long steps = Long.MAX_VALUE;
+		if (vx != 0.0)
+			steps = Math.min(steps, (long) ((vx > 0.0 ? half - x : half + x) / Math.abs(vx)));
+		if (vy != 0.0)
+			steps = Math.min(steps, (long) ((vy > 0.0 ? half - y : half + y) / Math.abs(vy)));
+		// free steps before any piper may be in range (closing at most
+		// at piper and rat speed per turn), pipers further than the wall
+		// allows are not searched for
+		double closing = piper_mute_speed + rat_speed;
+		double reach = 10.0 + 1e-6 + closing * ((double) steps + 2.0);
+		double d = all_pipers.nearest(x, y, reach);
+		steps = Math.min(steps, (long) Math.ceil((d - 10.0 - 1e-6) / closing) - 1);
+		steps = Math.min(steps - 1, 1 << 30);
+		if (steps < 2) return;
+		rat_dormant[r] = true;
+		rat_t0[r] = turn;
+		rat_x0[r] = x;
+		rat_y0[r] = y;
+		rat_vx[r] = vx;
+		rat_vy[r] = vy;
+		rat_index[rat_id[r]] = r;
+		queue.push(turn + steps + 1, rat_id[r]);
+	}
+
+	// ask a player for moves (with rat ids if the player takes them)
+	private static void ask(Player player, Snapshot s, Move[] moves)
+	{
+		if (player instanceof IdentifiedPlayer)
+			((IdentifiedPlayer) player).play(s.pipers, s.pipers_played,
+			                                 s.rats, s.rat_ids, moves);
+		else
+			player.play(s.pipers, s.pipers_played, s.rats, moves);
+	}
+
+	// ask a player for moves and time its play()
+	private void ask(int g, Player player, Snapshot s, Move[] moves)
+	{
+		if (metrics == null) {
+			ask(player, s, moves);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			ask(player, s, moves);
+		} finally {
+			metrics.play(g, System.nanoTime() - start);
+		}
+	}
+
+	// clock for metrics (0 if not measured)
+	private long now()
+	{
+		return metrics == null ? 0 : System.nanoTime();
+	}
+
+	// record the time of a phase started at a given time and return the time
+	private long lap(int phase, long start)
+	{
+		if (metrics == null) return 0;
+		long now = System.nanoTime();
+		metrics.time(phase, now - start);
+		return now;
+	}
+
+	// player exception during play()
+	private void play_exception(int g, Exception e)
+	{
+		println("Exception by " + direction[g] +
+		        " group " + groups[g] + " play()");
+		print(e);
+		fail("Group " + groups[g] + " threw"
+		     + " exception on play(): " + e.getMessage(), e);
+	}
+
+	// ask all players for moves concurrently and wait until the deadline
+	// (late players and players still busy with an earlier turn stay idle)
+	private void play_concurrent(Snapshot s)
+	{
+		Move[][] out = new Move [4][];
+		for (int g = 0 ; g != 4 ; ++g) {
+			if (players[g] == null) continue;
+			if (pending[g] != null && !pending[g].isDone()) continue;
+			// a late player keeps writing to its own array
+			Player player = players[g];
+			Move[] m = out[g] = new Move [moves[g].length];
+			int group = g;
+			pending[g] = player_pool.submit(() -> ask(group, player, s, m));
+		}
+		long end = System.nanoTime() + deadline * 1000000L;
+		for (int g = 0 ; g != 4 ; ++g) {
+			Arrays.fill(moves[g], null);
+			if (players[g] == null) continue;
+			boolean done = false;
+			if (out[g] != null) {
+				try {
+					pending[g].get(Math.max(end - System.nanoTime(), 0),
+					               TimeUnit.NANOSECONDS);
+					done = true;
+				} catch (TimeoutException e) {
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					Throwable c = e.getCause();
+					if (c instanceof Error) throw (Error) c;
+					play_exception(g, (Exception) c);
 				}
 			}
-		// print info on player positions
-		for (int g = 0 ; g != pipers.length ; ++g) {
-			print("Group " + groups[g] + " ");
-			for (int p = 0 ; p != pipers[g].length ; ++p) {
-				print("(" + pipers[g][p].x + ", " + pipers[g][p].y + ")");
-				if (p + 1 != pipers[g].length) print(", ");
+			if (done)
+				System.arraycopy(out[g], 0, moves[g], 0, moves[g].length);
+			else {
+				Arrays.fill(moves[g], idle);
+				if (trace != null) trace.event(Tracer.MOVE_TIMEOUT, g, -1);
 			}
-			println(": " + score[g] + " [" + direction[g] + "]");
 		}
 	}
 
-	// javascript array for piper locations
-	private String group_state(int g)
+	// update rats in chunks on the fork-join pool and reduce captures
+	private int step_rats_parallel()
 	{
-		StringBuffer buf = new StringBuffer();
-		double radius = inner_side * 0.5 + outer_side;
-		buf.append(groups[g] + ", " + score[g]);
-		for (int p = 0 ; p != pipers[g].length ; ++p) {
-			double x = pipers[g][p].x / radius;
-			double y = pipers[g][p].y / radius;
-			int m = moves[g][p] != null && moves[g][p].play ? 1 : 0;
-			buf.append(", " + x + ", " + y + ", " + m);
+		int chunks = (rat_count + rat_chunk - 1) / rat_chunk;
+		pool.invoke(new RatTask(0, chunks));
+		int caught = 0;
+		for (int c = 0 ; c != chunks ; ++c) {
+			caught += chunk_caught[c];
+			for (int g = 0 ; g != 4 ; ++g) {
+				score[g] += chunk_score[c][g];
+				chunk_score[c][g] = 0;
+			}
+		}
+		return caught;
+	}
+
+	// fork-join task over a range of rat chunks
+	private class RatTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int lo;
+		private final int hi;
+
+		RatTask(int lo, int hi)
+		{
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute()
+		{
+			if (hi - lo == 1) {
+				int r = lo * rat_chunk;
+				chunk_caught[lo] = step_rats(r, Math.min(r + rat_chunk, rat_count),
+				                             chunk_count[lo], chunk_score[lo]);
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new RatTask(lo, mid), new RatTask(mid, hi));
+			}
 		}
-		return buf.toString();
 	}
 
-	// javascript array for rat locations
-	private String rats_state()
+	// next number of a per rat splitmix64 stream (as in SplittableRandom)
+	private static double next_double(long[] seed, int r)
 	{
-		StringBuffer buf = new StringBuffer();
-		double radius = inner_side * 0.5 + outer_side;
-		for (int r = 0 ; r != rats.length ; ++r) {
-			double x = rats[r].x / radius;
-			double y = rats[r].y / radius;
-			double a = rat_angle[r];
-			int t = rat_tune[r];
-			buf.append(x + ", " + y + ", " + a + ", " + t);
-			if (r + 1 != rats.length)
-				buf.append(", ");
+		return (mix64(seed[r] += 0x9e3779b97f4a7c15L) >>> 11) * 0x1.0p-53;
+	}
+
+	// splitmix64 finalizer
+	private static long mix64(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	// copy the state after the current turn into a frame
+	void frame(Frame f, boolean last)
+	{
+		f.turn = turn;
+		f.last = last;
+		System.arraycopy(score, 0, f.score, 0, 4);
+		for (int g = 0 ; g != 4 ; ++g) {
+			int n = piper_x[g].length;
+			System.arraycopy(piper_x[g], 0, f.piper_x[g], 0, n);
+			System.arraycopy(piper_y[g], 0, f.piper_y[g], 0, n);
+			System.arraycopy(move_play[g], 0, f.piper_play[g], 0, n);
 		}
-		return buf.toString();
+		f.rat_count = rat_count;
+		System.arraycopy(rat_id, 0, f.rat_id, 0, rat_count);
+		System.arraycopy(rat_x, 0, f.rat_x, 0, rat_count);
+		System.arraycopy(rat_y, 0, f.rat_y, 0, rat_count);
+		System.arraycopy(rat_angle, 0, f.rat_angle, 0, rat_count);
+		System.arraycopy(rat_tune, 0, f.rat_tune, 0, rat_count);
 	}
 
-	// serve static files and return dynamic file version
-	private int file_server(HTTPServer server) throws IOException
+	// serve static files and return the path of dynamic content
+	// (N.dat text frame, N.bin binary keyframe, N.delta binary delta frame)
+	private String file_server(HTTPServer server) throws IOException
 	{
 		String path = "";
 		for (;;) {
@@ -455,12 +1044,15 @@ class Simulator1 {
 				path = server.request();
 			}
 			println("HTTP request arrived: \"" + path + "\"");
+			// metrics of the game so far
+			if (path.equals("metrics") && metrics != null) return path;
 			// check if dynamic content
-			if (path.endsWith(".dat")) {
+			if (path.endsWith(".dat") || path.endsWith(".bin") ||
+			    path.endsWith(".delta")) {
 				String num = path.substring(0, path.lastIndexOf('.'));
 				try {
 					int version = Integer.parseInt(num);
-					if (version >= 0) return version;
+					if (version >= 0) return path;
 				} catch (NumberFormatException e) {}
 				break;
 			}
@@ -479,54 +1071,155 @@ class Simulator1 {
 		throw new UnknownServiceException("Unknown HTTP request: " + path);
 	}
 
-	// play game
-	private void play(boolean gui) throws IOException
+	// append the state after the current turn to the replay
+	private void record() throws IOException
 	{
-		HTTPServer server = null;
-		if (gui) {
-			server = new HTTPServer();
-			System.err.println("HTTP port: " + server.port());
-		}
+		frame(replay_frame, turn_limit == 0);
+		replay.record(replay_frame);
+	}
+
+	// answer the viewer with the latest frame until the last one is sent
+	private void serve(HTTPServer server, FrameRing ring)
+	{
+		double side_ratio = inner_side * 1.0 / outer_side;
+		double radius = inner_side * 0.5 + outer_side;
+		FrameEncoder encoder = new FrameEncoder(groups, side_ratio, radius);
 		int version = 0;
-		for (long turn = 0 ;; ++turn) {
-			while (gui) {
+		try {
+			for (;;) {
 				// if old version return empty reply
-				int req_version = file_server(server);
+				String path = file_server(server);
+				if (path.equals("metrics")) {
+					if (!server.reply(metrics.text()))
+						System.err.println("Connection failure during reply!");
+					continue;
+				}
+				String type = path.substring(path.lastIndexOf('.') + 1);
+				int req_version = Integer.parseInt(
+				                  path.substring(0, path.lastIndexOf('.')));
 				if (req_version != 0 && req_version <= version) {
 					server.reply("");
 					continue;
 				}
-				// create dynamic content
-				double side_ratio = inner_side * 1.0 / outer_side;
-				int current_refresh = turn_limit == 0 ? -1 : refresh;
-				String content = side_ratio     + "\n"
-				               + group_state(0) + "\n"
-				               + group_state(1) + "\n"
-				               + group_state(2) + "\n"
-				               + group_state(3) + "\n"
-				               + rats_state()   + "\n"
-				               + current_refresh;
+				// create dynamic content from the latest frame
+				// (binary frames are sent as base64 text)
+				long start = now();
+				Frame f = ring.pin();
+				boolean last = f.last;
+				int current_refresh = last ? -1 : refresh;
+				String content;
+				try {
+					if (type.equals("dat"))
+						content = f.text(groups, side_ratio, radius, current_refresh);
+					else
+						content = encoder.encode_text(f, current_refresh,
+						                              type.equals("delta"));
+				} finally {
+					ring.unpin();
+				}
+				lap(Metrics.SERVE, start);
 				// send dynamic content
 				if (!server.reply(content))
 					System.err.println("Connection failure during reply!");
 				else {
 					println("Dynamic reply: " + content.length() + " bytes");
 					version = req_version;
-					break;
+					if (last) break;
 				}
 			}
-			if (turn_limit == 0) break;
-			// run next turn
-			if (turn > 0) {
-				println("### beg of turn " + turn + " ###");
+		} catch (IOException e) {
+			System.err.println("Viewer stopped: " + e.getMessage());
+		} finally {
+			ring.close();
+		}
+	}
+
+	// play game
+	private void play(boolean gui) throws IOException
+	{
+		HTTPServer server = null;
+		FrameRing ring = null;
+		Thread viewer = null;
+		if (threads > 1)
+			pool = new ForkJoinPool(threads);
+		// daemon threads so that a stuck player does not keep the JVM alive
+		if (deadline >= 0)
+			player_pool = Executors.newFixedThreadPool(4, r -> {
+				Thread t = new Thread(r, "player");
+				t.setDaemon(true);
+				return t;
+			});
+		boolean finished = false;
+		try {
+			// the viewer is served from its own thread and never holds the game
+			if (gui) {
+				server = new HTTPServer();
+				System.err.println("HTTP port: " + server.port());
+				ring = new FrameRing(3, piper_x[0].length, rat_x.length);
+				frame(ring.acquire(), turn_limit == 0);
+				ring.publish();
+				HTTPServer http = server;
+				FrameRing frames = ring;
+				viewer = new Thread(() -> serve(http, frames), "viewer");
+				viewer.start();
+				// start once the first frame is on screen
+				ring.await_viewer();
+			}
+			if (replay_file != null) {
+				replay = new ReplayRecorder(new File(replay_file), groups, inner_side,
+				                            piper_x[0].length, rat_x.length,
+				                            replay_keyframes);
+				replay_frame = new Frame(piper_x[0].length, rat_x.length);
+				record();
+			}
+			while (turn_limit != 0) {
+				// run next turn
+				println("### beg of turn " + (turn + 1) + " ###");
 				next();
 				println("### end of turn " + turn + " ###");
 				if (turn_limit > 0) turn_limit--;
-				if (rats.length == 0) turn_limit = 0;
+				if (rat_count == 0) turn_limit = 0;
+				long t = now();
+				if (ring != null) {
+					frame(ring.acquire(), turn_limit == 0);
+					ring.publish();
+					t = lap(Metrics.VIEW, t);
+				}
+				if (replay != null) {
+					record();
+					lap(Metrics.REPLAY, t);
+				}
+			}
+			if (replay != null) {
+				replay.close();
+				replay = null;
+			}
+			finished = true;
+		} finally {
+			// a failed game releases its threads & files too
+			close_replay();
+			// wait for the viewer to fetch the final frame
+			// (stopped by closing the server if the game failed)
+			if (server != null && (viewer == null || !finished))
+				server.close();
+			if (viewer != null) {
+				try {
+					viewer.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (finished) server.close();
+			}
+			if (pool != null) {
+				pool.shutdown();
+				pool = null;
+			}
+			if (player_pool != null) {
+				player_pool.shutdownNow();
+				player_pool = null;
+				Arrays.fill(pending, null);
 			}
 		}
-		if (server != null)
-			server.close();
 	}
 
 	// the main function
@@ -537,10 +1230,6 @@ class Simulator1 {
 		boolean gui = false;
 		boolean recompile = false;
 		groups[0] = groups[1] = groups[2] = groups[3] = "g0";
-		direction[0] = "north";
-		direction[1] = "east";
-		direction[2] = "south";
-		direction[3] = "west";
 		try {
 			for (int a = 0 ; a != args.length ; ++a)
 				if (args[a].equals("-p") || args[a].equals("--pipers")) {
@@ -587,6 +1276,47 @@ class Simulator1 {
 					gui = true;
 				else if (args[a].equals("--recompile"))
 					recompile = true;
+				else if (args[a].equals("--trace")) {
+					if (++a == args.length)
+						throw new Exception("Missing trace file");
+					trace_file = args[a];
+				} else if (args[a].equals("--trace-size")) {
+					if (++a == args.length)
+						throw new Exception("Missing trace size");
+					trace_size = Integer.parseInt(args[a]);
+					if (trace_size < 1)
+						throw new Exception("Invalid trace size (need at least 1 event)");
+				} else if (args[a].equals("--threads")) {
+					if (++a == args.length)
+						throw new Exception("Missing number of threads");
+					threads = Integer.parseInt(args[a]);
+					if (threads < 1)
+						throw new Exception("Invalid number of threads (need at least 1)");
+				} else if (args[a].equals("--replay")) {
+					if (++a == args.length)
+						throw new Exception("Missing replay file");
+					replay_file = args[a];
+				} else if (args[a].equals("--keyframes")) {
+					if (++a == args.length)
+						throw new Exception("Missing keyframe interval");
+					replay_keyframes = Integer.parseInt(args[a]);
+					if (replay_keyframes < 1)
+						throw new Exception("Invalid keyframe interval (need at least 1 turn)");
+				} else if (args[a].equals("--seed")) {
+					if (++a == args.length)
+						throw new Exception("Missing seed");
+					seed = Long.parseLong(args[a]);
+					seeded = true;
+				} else if (args[a].equals("--fast-forward"))
+					fast_forward = true;
+				else if (args[a].equals("--deadline")) {
+					if (++a == args.length)
+						throw new Exception("Missing deadline");
+					deadline = Long.parseLong(args[a]);
+					if (deadline < 0)
+						throw new Exception("Invalid deadline (must be non-negative)");
+				} else if (args[a].equals("--metrics"))
+					measure = true;
 				else throw new Exception("Unknown argument: " + args[a]);
 			if (groups == null)
 				throw new Exception("Missing group name parameter");
@@ -607,6 +1337,19 @@ class Simulator1 {
 		System.err.println("Turns (max): " + (turn_limit < 0 ? "+oo" : turn_limit));
 		System.err.println("Verbose: " + (verbose   ? "yes" : "no"));
 		System.err.println("Recompile: " + (recompile ? "yes" : "no"));
+		System.err.println("Threads: " + threads);
+		if (deadline >= 0)
+			System.err.println("Deadline: " + deadline + " ms per turn");
+		if (fast_forward)
+			System.err.println("Fast-forward: " + (verbose || trace_file != null ?
+			                   "no (not with tracing)" : "yes"));
+		if (replay_file != null)
+			System.err.println("Replay: " + replay_file
+			                   + " (keyframe every " + replay_keyframes + " turns)");
+		if (trace_file != null)
+			System.err.println("Trace: " + trace_file + " (last " + trace_size + " events)");
+		if (measure)
+			System.err.println("Metrics: yes" + (gui ? " (also served as /metrics)" : ""));
 		if (!gui)
 			System.err.println("GUI: disabled");
 		else if (refresh < 0)
@@ -617,7 +1360,14 @@ class Simulator1 {
 			double fps = 1000.0 / refresh;
 			System.err.println("GUI: enabled  (up to " + fps + " FPS)");
 		}
-		// initialize and play
+		// initialize and play (seeded so the game can be replayed)
+		if (!seeded)
+			seed = gen.nextLong();
+		System.err.println("Seed: " + seed);
+		gen = new Random(seed);
+		long turns = turn_limit < 0 ? -1 : turn_limit / 10;
+		Game game = new Game(groups, inner_side, n_rats, n_pipers, turns, seed);
+		long start = System.nanoTime();
 		if (!init(n_pipers, n_rats)) {
 			System.err.println("No valid players to play game");
 			System.exit(1);
@@ -627,46 +1377,97 @@ class Simulator1 {
 		} catch (Exception e) {
 			System.err.println("Error during play: " + e.getMessage());
 			e.printStackTrace();
+			dump_trace();
 			System.exit(1);
 		}
+		dump_trace();
 		// print scores
 		System.err.println("North group (" + groups[0] + ") scored: " + score[0]);
 		System.err.println("East  group (" + groups[1] + ") scored: " + score[1]);
 		System.err.println("South group (" + groups[2] + ") scored: " + score[2]);
 		System.err.println("West  group (" + groups[3] + ") scored: " + score[3]);
+		if (metrics != null)
+			System.err.print(metrics.text());
 
 		// get results
-		// format: side,rats,pipers,N,E,S,W,scoreN,scoreE,scoreS,scoreW,winner,total score
-		StringBuilder res = new StringBuilder();
-		res.append(inner_side
-			+ "," + n_rats
-			+ "," + n_pipers);
-
-		int totalScore = 0;
-		int winner = 5;
-		int maxScore = -1;
-		for (int i = 0; i < 4; i++) {
-			res.append("," + groups[i]);
-		}
-		for (int i = 0; i < 4; i++) {
-			res.append("," + score[i]);
-			totalScore += score[i];
-			if (score[i] > maxScore) {
-				winner = i;
-				maxScore = score[i];
-			}
-		}
-		res.append("," + groups[winner]);
-		res.append("," + totalScore);
-		res.append("\n");
+		Result result = new Result(game, score, turn, System.nanoTime() - start, null);
+		String res = result.csv() + "\n";
 		System.out.println(res);
 
-		// put res into a file
-		FileWriter file;
+		// add result to the open segment of the result store
+		String dir = root + File.separator + "sim" + File.separator + "results";
+		try (ResultStore store = new ResultStore(new File(dir))) {
+			store.log(result);
+		} catch (IOException e) {
+			System.err.println(e);
+		}
+	}
+
+	// play a game without printing or exiting (failures are thrown)
+	Result run(Game game) throws Exception
+	{
+		long start = System.nanoTime();
+		configure(game);
+		load(false);
+		if (!init(game.pipers, game.rats))
+			throw new GameException("No valid players to play game", null);
+		play(false);
+		return new Result(game, score, turn, System.nanoTime() - start, null);
+	}
+
+	// settings of a game played without printing or exiting
+	void configure(Game game)
+	{
+		exit_on_exception = false;
+		for (int g = 0 ; g != 4 ; ++g)
+			groups[g] = game.groups[g];
+		inner_side = game.side;
+		turn_limit = game.turns < 0 ? -1 : 10 * game.turns;
+		gen = new Random(game.seed);
+	}
+
+	// measure turn phases & players of the next game
+	void measure(boolean measure)
+	{
+		this.measure = measure;
+	}
+
+	// metrics of the game (null if not measured)
+	Metrics metrics()
+	{
+		return metrics;
+	}
+
+	// exit if run from the command line, otherwise abort only this game
+	private void fail(String msg, Exception e)
+	{
+		if (!exit_on_exception)
+			throw new GameException(msg, e);
+		System.err.println(msg);
+		System.err.println("Exiting ...");
+		dump_trace();
+		close_replay();
+		System.exit(1);
+	}
+
+	// close the replay of a game that ended early (it stays readable)
+	private void close_replay()
+	{
+		if (replay == null) return;
 		try {
-			file = new FileWriter("pppp/sim/result.csv", true);
-			file.write(res.toString());
-			file.close();
+			replay.close();
+		} catch (IOException e) {
+			System.err.println("Cannot close replay: " + e.getMessage());
+		}
+		replay = null;
+	}
+
+	// write the events still held by the tracer to the trace file
+	private void dump_trace()
+	{
+		if (trace == null || trace_file == null) return;
+		try (Writer out = new BufferedWriter(new FileWriter(trace_file))) {
+			trace.dump(out);
 		} catch (IOException e) {
 			System.err.println(e);
 		}
@@ -691,7 +1492,7 @@ class Simulator1 {
 	}
 
 	// recursive directory scan for files with given extension
-	private Set <File> directory(String path, String extension)
+	static Set <File> directory(String path, String extension)
 	{
 		Set <File> files = new HashSet <File> ();
 		Set <File> prev_dirs = new HashSet <File> ();
@@ -715,39 +1516,14 @@ class Simulator1 {
 	                                ReflectiveOperationException
 	{
 		// get unique player sources
-		Map <String, Class> group_map = new HashMap <String, Class> ();
+		Map <String, Class <?>> group_map = new HashMap <String, Class <?>> ();
 		for (int g = 0 ; g != groups.length ; ++g)
 			group_map.put(groups[g], null);
-		// compile and load classes
-		ClassLoader loader = Simulator.class.getClassLoader();
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		StandardJavaFileManager manager = compiler.
-		                        getStandardFileManager(null, null, null);
-		String sep = File.separator;
-		for (String group : group_map.keySet()) {
-			String dir = root + sep + group;
-			File class_file = new File(dir + sep + "Player.class");
-			if (compile || !class_file.exists()) {
-				File source_file = new File(dir + sep + "Player.java");
-				if (!source_file.exists())
-					throw new FileNotFoundException(
-					          "Missing source of group " + group);
-				Set <File> files = directory(dir, ".java");
-				System.err.print("Compiling " + group +
-				                 " (" + files.size() + " files) ... ");
-				if (!compiler.getTask(null, manager, null, null, null,
-				     manager.getJavaFileObjectsFromFiles(files)).call())
-					throw new IOException(
-					          "Cannot compile source of " + group);
-				System.err.println("done!");
-				class_file = new File(dir + sep + "Player.class");
-				if (!class_file.exists())
-					throw new FileNotFoundException(
-					          "Missing class of group " + group);
-			}
-			Class player = loader.loadClass(root + "." + group + ".Player");
-			group_map.replace(group, player);
-		}
+		// compile and load classes (cached across games)
+		PlayerCache cache = PlayerCache.shared();
+		for (String group : group_map.keySet())
+			group_map.replace(group, compile ? cache.reload(group)
+			                                 : cache.load(group));
 		// map to players
 		for (int g = 0 ; g != groups.length ; ++g)
 			player_classes[g] = group_map.get(groups[g]);
@@ -0,0 +1,30 @@
+package pppp.sim;
+
+// state at the start of a turn, published once and shared by all players
+// (the engine never reads these arrays back so players cannot corrupt it,
+//  the arrays are shared between players and must be treated as read-only:
+//  Player takes plain arrays, so no read-only view can be handed out and a
+//  player that writes into them only changes what the other players see)
+class Snapshot {
+
+	// turn the snapshot was taken at (0 before the first move)
+	final long turn;
+
+	// piper positions & whether they played in the previous turn
+	final Point[][] pipers;
+	final boolean[][] pipers_played;
+
+	// positions & permanent ids of the rats still free
+	final Point[] rats;
+	final int[] rat_ids;
+
+	Snapshot(long turn, Point[][] pipers, boolean[][] pipers_played,
+	         Point[] rats, int[] rat_ids)
+	{
+		this.turn = turn;
+		this.pipers = pipers;
+		this.pipers_played = pipers_played;
+		this.rats = rats;
+		this.rat_ids = rat_ids;
+	}
+}
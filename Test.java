@@ -1,37 +1,97 @@
 package pppp.sim;
 
-import pppp.sim.Simulator1;
 import java.io.*;
+import java.util.*;
+import java.util.function.Consumer;
 
 public class Test {
 	public static void main(String[] args) {
-		int side = 100;
-		int rats = 20;
-		int pipers = 2;
-		int trials = 5; // number of trials
-		int[] groups = {3, 4, 6, 8, 9};
-
-		for (int i = 0; i < groups.length - 2; i++) {
-			for (int j = i + 1; j < groups.length - 1; j++) {
-				for (int k = j + 1; k < groups.length; k++) {
-					String config = "-g g7 g" + groups[i] + " g" + groups[j] + " g" + groups[k]
-									+ " -s " + side
-									+ " -r " + rats
-									+ " -p " + pipers;
-					// System.out.println(config);
-					for (int round = 0; round < 5; round++) {
-						Simulator1 sim = new Simulator1();
-						sim.main(config.split(" "));
-					}
-					try {
-						FileWriter file = new FileWriter("pppp/sim/result.csv", true);
-						file.write("\n");
-						file.close();
-					} catch (IOException e) {
-						System.err.println(e);
-					}
+		// games run concurrently, default one per core
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean measure = false;
+		// games run in worker JVMs instead (if not zero)
+		int workers = 0;
+		// trials allocated by the scheduler (matrix trials is the mean)
+		boolean adaptive = false;
+		Matrix matrix;
+		Scheduler scheduler = null;
+		try {
+			List <String> rest = new ArrayList <String> ();
+			for (int a = 0 ; a != args.length ; ++a)
+				if (args[a].equals("--threads")) {
+					if (++a == args.length)
+						throw new Exception("Missing number of threads");
+					threads = Integer.parseInt(args[a]);
+					if (threads < 1)
+						throw new Exception("Invalid number of threads (need at least 1)");
+				} else if (args[a].equals("--hot-swap"))
+					PlayerCache.shared().watch(true);
+				else if (args[a].equals("--metrics"))
+					measure = true;
+				else if (args[a].equals("--adaptive"))
+					adaptive = true;
+				else if (args[a].equals("--workers")) {
+					if (++a == args.length)
+						throw new Exception("Missing number of workers");
+					workers = Integer.parseInt(args[a]);
+					if (workers < 1)
+						throw new Exception("Invalid number of workers (need at least 1)");
+				}
+				else rest.add(args[a]);
+			if (measure && workers > 0)
+				throw new Exception("Metrics are not available with workers"
+				                    + " (games run in other JVMs)");
+			matrix = Matrix.parse(rest.toArray(new String [0]));
+			if (adaptive) scheduler = new Scheduler(matrix);
+		} catch (Exception e) {
+			System.err.println("Error during setup: " + e.getMessage());
+			return;
+		}
+		List <Game> games = matrix.games();
+		String on = workers > 0 ? workers + " workers" : threads + " threads";
+		if (adaptive)
+			System.err.println("Games: adaptive, " + matrix.trials
+			                   + " games per matchup on average on " + on);
+		else
+			System.err.println("Games: " + games.size() + " on " + on);
+		List <Result> results;
+		Tournament tournament = new Tournament(threads);
+		tournament.measure(measure);
+		Coordinator coordinator = workers > 0 ? new Coordinator(workers) : null;
+		try (ResultStore store = new ResultStore(new File("pppp/sim/results"))) {
+			Consumer <Result> sink = result -> {
+				try {
+					store.append(result);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
-			}
+			};
+			// the same worker JVMs play every batch of the scheduler
+			Scheduler.Runner runner = coordinator != null ? coordinator::run
+			                                              : tournament::run;
+			if (scheduler != null)
+				results = scheduler.run(runner, sink);
+			else
+				results = runner.run(games, sink);
+		} catch (IOException | UncheckedIOException | InterruptedException e) {
+			System.err.println(e);
+			return;
+		} finally {
+			if (coordinator != null) coordinator.close();
 		}
+		// summary of this tournament
+		ResultStats stats = new ResultStats();
+		for (Result result : results)
+			if (result.failed())
+				System.err.println("Game " + result.game + " failed: " + result.error);
+			else
+				for (int g = 0 ; g != 4 ; ++g)
+					stats.add(result.game.side, result.game.rats, result.game.pipers,
+					          result.game.groups[g], result.score[g]);
+		System.out.print(stats.table());
+		if (scheduler != null)
+			System.out.print(scheduler.summary());
+		if (tournament.metrics() != null)
+			System.out.print(tournament.metrics().text());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package pppp.sim;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// plays many isolated games concurrently inside one JVM
+public class Tournament {
+
+	// number of games played at the same time
+	private final int threads;
+
+	// latency of all games by group (null if not measured)
+	private Metrics metrics = null;
+
+	public Tournament(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid number of threads (need at least 1)");
+		this.threads = threads;
+	}
+
+	// measure turn phases & players of all games
+	void measure(boolean measure)
+	{
+		metrics = measure ? new Metrics(new String [0]) : null;
+	}
+
+	Metrics metrics()
+	{
+		return metrics;
+	}
+
+	// play all games, results are returned in game order
+	public List <Result> run(List <Game> games) throws InterruptedException
+	{
+		return run(games, null);
+	}
+
+	// play all games and pass each result to the sink as it completes
+	public List <Result> run(List <Game> games, Consumer <Result> sink)
+	                        throws InterruptedException
+	{
+		// compile players once before games start concurrently
+		// (later games pick up changed sources if the cache is watching)
+		Set <String> groups = new HashSet <String> ();
+		for (Game game : games)
+			groups.addAll(Arrays.asList(game.groups));
+		for (String group : groups)
+			try {
+				PlayerCache.shared().load(group);
+			} catch (Exception e) {
+				System.err.println("Cannot load group " + group + ": " + e.getMessage());
+			}
+		ExecutorService exec = Executors.newFixedThreadPool(threads);
+		CompletionService <Result> done = new ExecutorCompletionService <Result> (exec);
+		Map <Future <Result>, Integer> index = new HashMap <Future <Result>, Integer> ();
+		try {
+			for (int i = 0 ; i != games.size() ; ++i) {
+				Game game = games.get(i);
+				index.put(done.submit(() -> play(game, metrics)), i);
+			}
+			Result[] results = new Result [games.size()];
+			for (int n = 0 ; n != games.size() ; ++n) {
+				Future <Result> f = done.take();
+				Result result = f.get();
+				results[index.get(f)] = result;
+				if (sink != null) sink.accept(result);
+			}
+			return Arrays.asList(results);
+		} catch (ExecutionException e) {
+			// play() reports failures in its result
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	// play a single game, any failure is reported in the result
+	public static Result play(Game game)
+	{
+		return play(game, null);
+	}
+
+	// play a single game and add its metrics to a total (if not null)
+	private static Result play(Game game, Metrics total)
+	{
+		long start = System.nanoTime();
+		try {
+			Simulator1 sim = new Simulator1();
+			sim.measure(total != null);
+			Result result = sim.run(game);
+			if (total != null) total.add(sim.metrics());
+			return result;
+		} catch (Throwable e) {
+			// any error of a player (out of memory, assertion, ...) fails
+			// only its game, the other games keep running
+			String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+			return new Result(game, null, 0, System.nanoTime() - start, msg);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package pppp.sim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// typed game events recorded into a preallocated binary ring buffer
+// (text is only formatted when the events are dumped)
+class Tracer {
+
+	// event types
+	static final byte RAT_MOVED        =  1;
+	static final byte RAT_STILL        =  2;
+	static final byte RAT_CAUGHT       =  3;
+	static final byte RAT_WALL_V       =  4;
+	static final byte RAT_WALL_H       =  5;
+	static final byte PIPER_MOVED      =  6;
+	static final byte PIPER_STILL      =  7;
+	static final byte PIPER_GRID_V     =  8;
+	static final byte PIPER_GRID_H     =  9;
+	static final byte PIPER_WALL_IN_V  = 10;
+	static final byte PIPER_WALL_IN_H  = 11;
+	static final byte PIPER_WALL_OUT_V = 12;
+	static final byte PIPER_WALL_OUT_H = 13;
+	static final byte PIPER_GATE_IN_V  = 14;
+	static final byte PIPER_GATE_IN_H  = 15;
+	static final byte PIPER_GATE_OUT_V = 16;
+	static final byte PIPER_GATE_OUT_H = 17;
+	static final byte MOVE_INVALID     = 18;
+	static final byte MOVE_FIXED       = 19;
+	static final byte MOVE_TIMEOUT     = 20;
+
+	// record layout: type, group, index (rat id or piper), turn, 4 values
+	private static final int RECORD = 48;
+
+	private final ByteBuffer buf;
+	private final int mask;
+	private final String[] groups;
+
+	// next record to write (shared by concurrent writers) & to drain
+	private final AtomicLong written = new AtomicLong();
+	private long drained = 0;
+
+	// current turn
+	private long turn = 0;
+
+	Tracer(int capacity, String[] groups)
+	{
+		int n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		buf = ByteBuffer.allocate(n * RECORD);
+		mask = n - 1;
+		this.groups = groups;
+	}
+
+	// number of events the ring can hold
+	int capacity()
+	{
+		return mask + 1;
+	}
+
+	// start recording events of the next turn
+	void begin_turn()
+	{
+		turn++;
+	}
+
+	void event(byte type, int group, int index)
+	{
+		event(type, group, index, 0.0, 0.0, 0.0, 0.0);
+	}
+
+	void event(byte type, int group, int index, double a, double b)
+	{
+		event(type, group, index, a, b, 0.0, 0.0);
+	}
+
+	// record an event (safe to call from concurrent threads)
+	void event(byte type, int group, int index,
+	           double a, double b, double c, double d)
+	{
+		int off = (int) (written.getAndIncrement() & mask) * RECORD;
+		buf.put(off, type);
+		buf.put(off + 1, (byte) group);
+		buf.putInt(off + 4, index);
+		buf.putLong(off + 8, turn);
+		buf.putDouble(off + 16, a);
+		buf.putDouble(off + 24, b);
+		buf.putDouble(off + 32, c);
+		buf.putDouble(off + 40, d);
+	}
+
+	// print events recorded since the last drain (one message per line)
+	void drain(PrintStream out)
+	{
+		long end = written.get();
+		for (long e = Math.max(drained, end - capacity()) ; e != end ; ++e)
+			out.println(message((int) (e & mask) * RECORD));
+		drained = end;
+	}
+
+	// write all events still held in the ring as text
+	void dump(Writer out) throws IOException
+	{
+		long end = written.get();
+		for (long e = Math.max(0, end - capacity()) ; e != end ; ++e) {
+			int off = (int) (e & mask) * RECORD;
+			out.write("[" + buf.getLong(off + 8) + "] " + message(off) + "\n");
+		}
+	}
+
+	// format a recorded event
+	private String message(int off)
+	{
+		int g = buf.get(off + 1);
+		double a = buf.getDouble(off + 16);
+		double b = buf.getDouble(off + 24);
+		double c = buf.getDouble(off + 32);
+		double d = buf.getDouble(off + 40);
+		switch (buf.get(off)) {
+			case RAT_MOVED:
+				return "Rat moved from (" + a + ", " + b + ")" +
+				                " to (" + c + ", " + d + ")";
+			case RAT_STILL:
+				return "Rat is still at (" + a + ", " + b + ")";
+			case RAT_CAUGHT:
+				return "Rat caught at (" + a + ", " + b + ")";
+			case RAT_WALL_V:
+				return "Rat collided with vertical wall";
+			case RAT_WALL_H:
+				return "Rat collided with horizontal wall";
+			case PIPER_MOVED:
+				return "Piper moved from (" + a + ", " + b + ")"
+				       + " to (" + c + ", " + d + ")";
+			case PIPER_STILL:
+				return "Piper stayed still at (" + a + ", " + b + ")";
+			case PIPER_GRID_V:
+				return "Piper collided with vertical grid wall";
+			case PIPER_GRID_H:
+				return "Piper collided with horizontal grid wall";
+			case PIPER_WALL_IN_V:
+				return "Piper collided with vertical wall from inside";
+			case PIPER_WALL_IN_H:
+				return "Piper collided with horizontal wall from inside";
+			case PIPER_WALL_OUT_V:
+				return "Piper collided with vertical wall from outside";
+			case PIPER_WALL_OUT_H:
+				return "Piper collided with horizontal wall from outside";
+			case PIPER_GATE_IN_V:
+				return "Piper passed vertical gate from inside"
+				       + " (" + a + ", " + b + ")";
+			case PIPER_GATE_IN_H:
+				return "Piper passed horizontal gate from inside"
+				       + " (" + a + ", " + b + ")";
+			case PIPER_GATE_OUT_V:
+				return "Piper passed vertical gate from outside"
+				       + " (" + a + ", " + b + ")";
+			case PIPER_GATE_OUT_H:
+				return "Piper passed horizontal gate from outside"
+				       + " (" + a + ", " + b + ")";
+			case MOVE_INVALID:
+				return "Invalid move by group " + groups[g];
+			case MOVE_FIXED:
+				return "Fixed move by group " + groups[g];
+			case MOVE_TIMEOUT:
+				return "Missed deadline by group " + groups[g];
+			default:
+				return "Unknown event";
+		}
+	}
+}
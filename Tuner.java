@@ -0,0 +1,234 @@
+package pppp.sim;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+// successive halving search over the parameters of a group
+// (the group exposes pppp.<group>.Params with static names, defaults,
+//  lower, upper and use(double[]) that selects the parameters of the
+//  players created on the calling thread, as pppp.g7.Params does)
+//
+// every rung plays each candidate in the same games, with the group
+// rotated through all seats against the opponents, keeps the best
+// 1 / eta candidates by mean share of the captured rats and gives
+// eta times more games to the survivors (opponents of the same group
+// play with the candidate parameters too)
+public class Tuner {
+
+	public String group = "g7";
+	public String[] opponents = {"g3", "g4", "g6"};
+	public int[] sides = {100};
+	public int[] rats = {20};
+	public int[] pipers = {2};
+	public long turns = -1;
+	public int candidates = 27;
+	public int eta = 3;
+	public int rounds = 1;
+	public long seed = 0;
+
+	// parameter hooks of the group (of the loaded version of the group)
+	private String[] names;
+	private double[] defaults;
+	private double[] lower;
+	private double[] upper;
+	private Method use;
+
+	// candidate & the share of rats it captured in each game so far
+	private static class Candidate {
+
+		final double[] params;
+		double sum = 0.0;
+		int games = 0;
+
+		Candidate(double[] params)
+		{
+			this.params = params;
+		}
+
+		double mean()
+		{
+			return games == 0 ? 0.0 : sum / games;
+		}
+	}
+
+	// find the parameters of the group through its class loader
+	private void hooks() throws Exception
+	{
+		ClassLoader loader = PlayerCache.shared().load(group).getClassLoader();
+		Class <?> params = loader.loadClass("pppp." + group + ".Params");
+		names = (String[]) params.getMethod("names").invoke(null);
+		defaults = (double[]) params.getMethod("defaults").invoke(null);
+		lower = (double[]) params.getMethod("lower").invoke(null);
+		upper = (double[]) params.getMethod("upper").invoke(null);
+		use = params.getMethod("use", double[].class);
+	}
+
+	// best candidates of one configuration (best first)
+	private List <Candidate> tune(ExecutorService exec, SplittableRandom random,
+	                              int side, int n_rats, int n_pipers)
+	                              throws Exception
+	{
+		// defaults compete with uniform samples of the ranges
+		List <Candidate> alive = new ArrayList <Candidate> ();
+		alive.add(new Candidate(defaults.clone()));
+		while (alive.size() < candidates) {
+			double[] p = new double [names.length];
+			for (int i = 0 ; i != p.length ; ++i)
+				p[i] = lower[i] + random.nextDouble() * (upper[i] - lower[i]);
+			alive.add(new Candidate(p));
+		}
+		int rung_rounds = rounds;
+		for (int rung = 0 ; ; ++rung) {
+			// same games for every candidate of the rung
+			List <Game> games = new ArrayList <Game> ();
+			for (int r = 0 ; r != rung_rounds ; ++r) {
+				long game_seed = random.nextLong();
+				for (int s = 0 ; s != 4 ; ++s) {
+					String[] lineup = new String [4];
+					lineup[s] = group;
+					for (int o = 0 ; o != 3 ; ++o)
+						lineup[(s + 1 + o) % 4] = opponents[o];
+					games.add(new Game(lineup, side, n_rats, n_pipers, turns, game_seed));
+				}
+			}
+			List <Future <Double>> shares = new ArrayList <Future <Double>> ();
+			for (Candidate c : alive)
+				for (int i = 0 ; i != games.size() ; ++i) {
+					Game game = games.get(i);
+					int seat = i % 4;
+					shares.add(exec.submit(() -> share(c.params, game, seat)));
+				}
+			int k = 0;
+			for (Candidate c : alive)
+				for (int i = 0 ; i != games.size() ; ++i) {
+					c.sum += shares.get(k++).get();
+					c.games++;
+				}
+			alive.sort((a, b) -> Double.compare(b.mean(), a.mean()));
+			System.err.println("Rung " + rung + ": " + alive.size() + " candidates, "
+			                   + games.size() + " games each, best "
+			                   + String.format("%.4f", alive.get(0).mean()));
+			int keep = Math.max(1, alive.size() / eta);
+			alive = new ArrayList <Candidate> (alive.subList(0, keep));
+			if (keep == 1) return alive;
+			rung_rounds *= eta;
+		}
+	}
+
+	// share of the captured rats won by the group in its seat (0 if failed)
+	private double share(double[] params, Game game, int seat) throws Exception
+	{
+		use.invoke(null, (Object) params);
+		try {
+			Result result = Tournament.play(game);
+			if (result.failed()) return 0.0;
+			int total = result.total();
+			return total == 0 ? 0.0 : result.score[seat] / (double) total;
+		} finally {
+			use.invoke(null, (Object) null);
+		}
+	}
+
+	// tune every configuration, printing the best parameters of each
+	public void run(int threads) throws Exception
+	{
+		hooks();
+		SplittableRandom random = new SplittableRandom(seed);
+		ExecutorService exec = Executors.newFixedThreadPool(threads);
+		try {
+			for (int side : sides)
+				for (int n_rats : rats)
+					for (int n_pipers : pipers) {
+						System.err.println("Tuning " + group + " on side " + side + " rats "
+						                   + n_rats + " pipers " + n_pipers);
+						List <Candidate> best = tune(exec, random.split(), side, n_rats, n_pipers);
+						Candidate c = best.get(0);
+						StringBuilder buf = new StringBuilder();
+						buf.append(side + "," + n_rats + "," + n_pipers + ","
+						           + String.format("%.4f", c.mean()));
+						for (int i = 0 ; i != names.length ; ++i)
+							buf.append("," + names[i] + "=" + String.format("%.4g", c.params[i]));
+						System.out.println(buf);
+					}
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		Tuner tuner = new Tuner();
+		int threads = Runtime.getRuntime().availableProcessors();
+		try {
+			for (int a = 0 ; a != args.length ; ++a)
+				if (args[a].equals("--threads")) {
+					if (++a == args.length)
+						throw new Exception("Missing number of threads");
+					threads = Integer.parseInt(args[a]);
+				} else if (args[a].equals("-g")) {
+					if (++a == args.length)
+						throw new Exception("Missing group name");
+					tuner.group = args[a];
+				} else if (args[a].equals("--opponents")) {
+					if (++a == args.length)
+						throw new Exception("Missing opponents");
+					tuner.opponents = args[a].split(",");
+					if (tuner.opponents.length != 3)
+						throw new Exception("Invalid opponents (need 3 groups)");
+				} else if (args[a].equals("-s")) {
+					if (++a == args.length)
+						throw new Exception("Missing square sides");
+					tuner.sides = ints(args[a]);
+				} else if (args[a].equals("-r")) {
+					if (++a == args.length)
+						throw new Exception("Missing numbers of rats");
+					tuner.rats = ints(args[a]);
+				} else if (args[a].equals("-p")) {
+					if (++a == args.length)
+						throw new Exception("Missing numbers of pipers");
+					tuner.pipers = ints(args[a]);
+				} else if (args[a].equals("-t")) {
+					if (++a == args.length)
+						throw new Exception("Missing turn limit");
+					tuner.turns = Long.parseLong(args[a]);
+				} else if (args[a].equals("--candidates")) {
+					if (++a == args.length)
+						throw new Exception("Missing number of candidates");
+					tuner.candidates = Integer.parseInt(args[a]);
+				} else if (args[a].equals("--eta")) {
+					if (++a == args.length)
+						throw new Exception("Missing elimination rate");
+					tuner.eta = Integer.parseInt(args[a]);
+				} else if (args[a].equals("--rounds")) {
+					if (++a == args.length)
+						throw new Exception("Missing rounds of the first rung");
+					tuner.rounds = Integer.parseInt(args[a]);
+				} else if (args[a].equals("--seed")) {
+					if (++a == args.length)
+						throw new Exception("Missing seed");
+					tuner.seed = Long.parseLong(args[a]);
+				} else throw new Exception("Unknown argument: " + args[a]);
+			if (tuner.candidates < 1 || tuner.eta < 2 || tuner.rounds < 1 || threads < 1)
+				throw new Exception("Invalid candidates, eta (need at least 2), rounds or threads");
+		} catch (Exception e) {
+			System.err.println("Error during setup: " + e.getMessage());
+			return;
+		}
+		try {
+			tuner.run(threads);
+		} catch (Exception e) {
+			System.err.println("Error during tuning: " + e);
+		}
+	}
+
+	// comma separated list of integers
+	private static int[] ints(String list)
+	{
+		String[] parts = list.split(",");
+		int[] values = new int [parts.length];
+		for (int i = 0 ; i != parts.length ; ++i)
+			values[i] = Integer.parseInt(parts[i]);
+		return values;
+	}
+}
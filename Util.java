@@ -47,21 +47,22 @@ public class Util {
     }
 
     /**
-     * Finds indices of points within a given distance
+     * Finds indices of points within a given distance without allocating
      *
      * @param pos      the position to compute from
      * @param otherPos the array of other positions
      * @param distance the maximum distance to compare
-     * @return list of indices of points within distance.
+     * @param out      buffer for the indices, at least as long as otherPos
+     * @return number of indices written to out, which are ascending
      */
-    public List<Integer> getIndicesWithinDistance(Point pos, Point[] otherPos, double distance) {
-        List<Integer> indices = new LinkedList<>();
+    public static int fillIndicesWithinDistance(Point pos, Point[] otherPos, double distance, int[] out) {
+        int k = 0;
         for (int i = 0; i < otherPos.length; ++i) {
             if (otherPos[i] != null && pos.distance(otherPos[i]) < distance) {
-                indices.add(i);
+                out[k++] = i;
             }
         }
-        return indices;
+        return k;
     }
 
     /**
@@ -69,8 +70,12 @@ public class Util {
      *
      * @param p point to transform
      * @return point transformed into unified coordinate system, or back
+     * (p itself when the systems coincide)
      */
     public Point transformPoint(Point p) {
+        if (!neg_x && !neg_y && !swap_xy) {
+            return p;
+        }
         double x = p.x;
         double y = p.y;
         if (neg_y) {
@@ -82,13 +87,33 @@ public class Util {
         return swap_xy ? new Point(y, x) : new Point(x, y);
     }
 
+    /**
+     * @return x coordinate of the point (x, y) in the other system, as in
+     * {@link #transformPoint}
+     */
+    public double transformX(double x, double y) {
+        return swap_xy ? (neg_y ? -y : y) : (neg_x ? -x : x);
+    }
+
+    /**
+     * @return y coordinate of the point (x, y) in the other system, as in
+     * {@link #transformPoint}
+     */
+    public double transformY(double x, double y) {
+        return swap_xy ? (neg_x ? -x : x) : (neg_y ? -y : y);
+    }
+
     /**
      * Note: transformMove(transformMove(m)) == m
      *
      * @param m move to transform
      * @return move transformed into unified coordinate system, or back
+     * (m itself when the systems coincide)
      */
     public Move transformMove(Move m) {
+        if (!neg_x && !neg_y && !swap_xy) {
+            return m;
+        }
         double dx = m.dx;
         double dy = m.dy;
 
@@ -118,49 +143,5 @@ public class Util {
         return true;
     }
 
-    public int getClosestRat(int id, Player.PlayerState states[], int pidx, Point[][] piperPos, Move[][] piperVel,
-                             boolean[][] pipers_played, Point[] ratPos, int depth) {
-        ArrayList<Double> distances = new ArrayList<>();
-        HashMap<Double, Integer> rat_lut = new HashMap<>();
-
-        for (int i = 0; i < ratPos.length; ++i) {
-            Point rat_position = ratPos[i];
-            double distance = piperPos[id][pidx].distance(rat_position);
-            int localdepth = 0;
-
-            for (int j = 0; j < piperPos[id].length; ++j) {
-                if (pidx == j) {
-                    continue;
-                }
-
-                boolean is_captured = (states[j] instanceof Player.DepositState) &&
-                        piperPos[id][j].distance(rat_position) <= 10 + 1e-5;
-                boolean is_target = false;
-
-                if (states[j] instanceof Player.RetrieveClosestRatState) {
-                    if (((Player.RetrieveClosestRatState) states[j]).targetRat == i) {
-                        is_target = true;
-                    }
-                }
-
-
-                if (is_captured || is_target) {
-                    ++localdepth;
-                }
-            }
-            rat_lut.put(distance, i);
-            if (localdepth < depth) {
-                distances.add(distance);
-            }
-        }
-
-        Collections.sort(distances);
-
-        if (distances.isEmpty()) {
-            return pidx % ratPos.length;
-        } else {
-            return rat_lut.get(distances.get(0));
-        }
-    }
 
 }
@@ -0,0 +1,87 @@
+package pppp.sim;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+// worker JVM of a Coordinator, plays the games sent over a local socket
+//
+// one line per message, fields separated by spaces:
+//   to worker:   game id side rats pipers turns seed north east south west
+//   from worker: result id turns nanos north east south west
+//                error id turns nanos message (rest of the line)
+class Worker {
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = Integer.parseInt(args[0]);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+			                    socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+			             socket.getOutputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] field = line.split(" ");
+				if (!field[0].equals("game"))
+					throw new IOException("Unknown message: " + line);
+				Result result = Tournament.play(game(field));
+				out.write(result(field[1], result) + "\n");
+				out.flush();
+			}
+		}
+		// stop threads left behind by players
+		System.exit(0);
+	}
+
+	// game message
+	static String game(int id, Game game)
+	{
+		StringBuilder buf = new StringBuilder("game " + id);
+		buf.append(" " + game.side + " " + game.rats + " " + game.pipers);
+		buf.append(" " + game.turns + " " + game.seed);
+		for (int g = 0 ; g != 4 ; ++g)
+			buf.append(" " + game.groups[g]);
+		return buf.toString();
+	}
+
+	static Game game(String[] field)
+	{
+		String[] groups = new String [4];
+		for (int g = 0 ; g != 4 ; ++g)
+			groups[g] = field[7 + g];
+		return new Game(groups, Integer.parseInt(field[2]),
+		                Integer.parseInt(field[3]), Integer.parseInt(field[4]),
+		                Long.parseLong(field[5]), Long.parseLong(field[6]));
+	}
+
+	// result message
+	static String result(String id, Result result)
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append(result.failed() ? "error " : "result ");
+		buf.append(id + " " + result.turns + " " + result.nanos);
+		if (result.failed())
+			buf.append(" " + result.error.replace('\n', ' ').replace('\r', ' '));
+		else
+			for (int g = 0 ; g != 4 ; ++g)
+				buf.append(" " + result.score[g]);
+		return buf.toString();
+	}
+
+	static Result result(Game game, String[] field)
+	{
+		long turns = Long.parseLong(field[2]);
+		long nanos = Long.parseLong(field[3]);
+		if (field[0].equals("error")) {
+			StringBuilder error = new StringBuilder();
+			for (int i = 4 ; i < field.length ; ++i)
+				error.append(i == 4 ? "" : " ").append(field[i]);
+			return new Result(game, null, turns, nanos, error.toString());
+		}
+		int[] score = new int [4];
+		for (int g = 0 ; g != 4 ; ++g)
+			score[g] = Integer.parseInt(field[4 + g]);
+		return new Result(game, score, turns, nanos, null);
+	}
+}
@@ -0,0 +1,31 @@
+package pppp.sim;
+
+// stand-in player for benchmarks (no allocation & almost no work)
+// pipers circle in place and every other piper plays
+public class BenchPlayer implements Player {
+
+	private static final int STEPS = 64;
+
+	// moves of the circle (shared & immutable)
+	private static final Move[][] circle = new Move [2][STEPS];
+	static {
+		for (int i = 0 ; i != STEPS ; ++i) {
+			double a = i * Math.PI * 2.0 / STEPS;
+			circle[0][i] = new Move(Math.cos(a) * 0.5, Math.sin(a) * 0.5, false);
+			circle[1][i] = new Move(Math.cos(a) * 0.1, Math.sin(a) * 0.1, true);
+		}
+	}
+
+	private int turn = 0;
+
+	public void init(int id, int side, long turns,
+	                 Point[][] pipers, Point[] rats) {}
+
+	public void play(Point[][] pipers, boolean[][] pipers_played,
+	                 Point[] rats, Move[] moves)
+	{
+		int i = turn++ % STEPS;
+		for (int p = 0 ; p != moves.length ; ++p)
+			moves[p] = circle[p & 1][i];
+	}
+}
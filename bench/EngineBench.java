@@ -0,0 +1,105 @@
+package pppp.sim;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// engine benchmarks (run with "make bench", see the Makefile)
+// throughput is in turns per second, run with -prof gc for allocations
+// per turn (gc.alloc.rate.norm), all players are the stand-in player
+// so only the engine is measured and the game restarts every iteration
+// (and whenever all rats are caught, so that no turn runs without rats)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBench {
+
+	@Param({"100", "1000", "5000"})
+	public int side;
+
+	@Param({"10", "1000", "100000"})
+	public int rats;
+
+	@Param({"1", "20", "200"})
+	public int pipers;
+
+	private Simulator1 sim;
+	private Frame frame;
+	private FrameEncoder encoder;
+	private boolean delta;
+
+	@Setup(Level.Iteration)
+	public void setup()
+	{
+		String[] groups = {"bench", "bench", "bench", "bench"};
+		Class <?> [] players = new Class <?> [4];
+		for (int g = 0 ; g != 4 ; ++g)
+			players[g] = BenchPlayer.class;
+		sim = new Simulator1();
+		sim.configure(new Game(groups, side, rats, pipers, -1, 42));
+		if (!sim.init(players, pipers, rats))
+			throw new IllegalStateException("Cannot start benchmark game");
+		// reach a state where pipers have moved and rats heard tunes
+		sim.advance(20);
+		frame = new Frame(pipers, rats);
+		encoder = new FrameEncoder(groups, side / 10.0, side * 0.5 + 10);
+		delta = false;
+	}
+
+	// new game once all rats are caught (rare, so it barely counts)
+	private void refill()
+	{
+		if (sim.rat_count() == 0) setup();
+	}
+
+	// full turn
+	@Benchmark
+	public long tick()
+	{
+		refill();
+		sim.next();
+		return sim.turn();
+	}
+
+	// snapshot, player calls & move validation
+	@Benchmark
+	public void players()
+	{
+		sim.get_moves();
+	}
+
+	// rat motion & captures with the last moves
+	@Benchmark
+	public void rats()
+	{
+		refill();
+		sim.move_rats();
+	}
+
+	// piper motion & wall collisions with the last moves
+	@Benchmark
+	public void pipers()
+	{
+		sim.move_pipers();
+	}
+
+	// snapshot of the state published to the players every turn
+	@Benchmark
+	public Object snapshot()
+	{
+		return sim.take_snapshot();
+	}
+
+	// state copied into a frame & encoded for the viewer (delta after keyframe)
+	@Benchmark
+	public ByteBuffer encode()
+	{
+		sim.frame(frame, false);
+		ByteBuffer buf = encoder.encode(frame, 20, delta);
+		delta = true;
+		return buf;
+	}
+}